@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import ij.Prefs;
+
+// TODO: Auto-generated Javadoc
+/**
+ * Splits a range of indices (usually the rows of an image) into contiguous
+ * bands and processes the bands on a {@link ForkJoinPool}. Each index is
+ * processed by exactly one band, so a kernel that only writes to the rows of
+ * its own band gives the same result as a serial sweep over the whole range.
+ */
+public class BandExecutor {
+
+	/** The Constant MIN_BAND_SIZE. */
+	/* Bands smaller than this are not worth the task overhead. */
+	public static final int MIN_BAND_SIZE = 16;
+
+	/** The Constant BANDS_PER_THREAD. */
+	/* More bands than threads to balance bands of unequal cost. */
+	public static final int BANDS_PER_THREAD = 4;
+
+	/** The default pool. */
+	private static ForkJoinPool defaultPool = null;
+
+	/**
+	 * The work done on one band.
+	 */
+	public interface Band {
+
+		/**
+		 * Process the indices from (inclusive) to to (exclusive).
+		 *
+		 * @param from
+		 *            the first index of the band
+		 * @param to
+		 *            the index after the last index of the band
+		 */
+		void process(int from, int to);
+	}
+
+	/**
+	 * Gets the default pool. Its parallelism follows the number of threads set
+	 * in ImageJ (Edit&gt;Options&gt;Memory &amp; Threads). When the number of
+	 * threads changes, a new pool is created. The old pool is not shut down,
+	 * since the filters and detectors that still hold it must keep working;
+	 * its worker threads are daemon threads that end when they are idle, and
+	 * the pool is garbage collected once it is no longer referenced.
+	 *
+	 * @return the default pool
+	 */
+	public static synchronized ForkJoinPool getDefaultPool() {
+		int threads = Math.max(1, Prefs.getThreads());
+		if (defaultPool == null || defaultPool.getParallelism() != threads)
+			defaultPool = new ForkJoinPool(threads);
+		return defaultPool;
+	}
+
+	/**
+	 * Process the range [from,to) in bands. If pool is null or has a
+	 * parallelism of one, the whole range is processed as a single band on the
+	 * calling thread.
+	 *
+	 * @param pool
+	 *            the pool, may be null
+	 * @param from
+	 *            the first index
+	 * @param to
+	 *            the index after the last index
+	 * @param band
+	 *            the band
+	 */
+	public static void execute(ForkJoinPool pool, int from, int to, final Band band) {
+		int num, size, i;
+		ForkJoinTask<?>[] tasks;
+
+		if (to <= from)
+			return;
+		num = 1;
+		if (pool != null && pool.getParallelism() > 1)
+			num = Math.min(pool.getParallelism() * BANDS_PER_THREAD, (to - from + MIN_BAND_SIZE - 1) / MIN_BAND_SIZE);
+		if (num <= 1) {
+			band.process(from, to);
+			return;
+		}
+		size = (to - from + num - 1) / num;
+		tasks = new ForkJoinTask<?>[num];
+		for (i = 0; i < num; i++) {
+			final int start = Math.min(to, from + i * size);
+			final int end = Math.min(to, start + size);
+			tasks[i] = pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					band.process(start, end);
+				}
+			});
+		}
+		for (i = 0; i < num; i++)
+			tasks[i].join();
+	}
+
+}
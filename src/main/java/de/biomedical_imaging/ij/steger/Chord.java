@@ -28,11 +28,11 @@ package de.biomedical_imaging.ij.steger;
 public class Chord {
 
 	/** The r. */
-	short r; /* row coordinate of the chord */
+	int r; /* row coordinate of the chord */
 
 	/** The cb. */
-	short cb; /* column coordinate of the start of the chord */
+	int cb; /* column coordinate of the start of the chord */
 
 	/** The ce. */
-	short ce; /* column coordinate of the end of the chord */
+	int ce; /* column coordinate of the end of the chord */
 }
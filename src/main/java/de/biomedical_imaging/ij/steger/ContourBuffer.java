@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.Arrays;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ContourBuffer.
+ */
+/*
+ * The points of the line that is being linked, in the same parallel arrays as
+ * a Line. The arrays grow by REALLOC_FACTOR with System.arraycopy, so adding n
+ * points costs O(n) in total. A buffer is reused from one line to the next;
+ * when a line is finished its points are handed over to the LinkedLine, without
+ * a copy if the arrays happen to be full.
+ */
+public class ContourBuffer {
+
+	/** The num. */
+	int num; /* number of points */
+
+	/** The row. */
+	float[] row; /* row coordinates of the line points */
+
+	/** The col. */
+	float[] col; /* column coordinates of the line points */
+
+	/** The angle. */
+	float[] angle; /* angle of normal (measured from the row axis) */
+
+	/** The response. */
+	float[] response; /* response of line point (second derivative) */
+
+	/**
+	 * Instantiates a new empty contour buffer.
+	 */
+	public ContourBuffer() {
+		allocate(LinesUtil.INITIAL_SIZE);
+	}
+
+	/**
+	 * Allocate.
+	 *
+	 * @param size
+	 *            the size of the new arrays
+	 */
+	private void allocate(int size) {
+		row = new float[size];
+		col = new float[size];
+		angle = new float[size];
+		response = new float[size];
+	}
+
+	/**
+	 * Gets the num.
+	 *
+	 * @return the number of points
+	 */
+	public int getNum() {
+		return num;
+	}
+
+	/**
+	 * Remove all points.
+	 */
+	public void clear() {
+		num = 0;
+	}
+
+	/**
+	 * Add a point at the end.
+	 *
+	 * @param r
+	 *            the row coordinate
+	 * @param c
+	 *            the column coordinate
+	 * @param a
+	 *            the angle of the normal
+	 * @param resp
+	 *            the response
+	 */
+	public void add(float r, float c, float a, float resp) {
+		int size;
+
+		if (num >= row.length) {
+			size = (int) Math.floor((double) (row.length * LinesUtil.REALLOC_FACTOR));
+			row = Arrays.copyOf(row, size);
+			col = Arrays.copyOf(col, size);
+			angle = Arrays.copyOf(angle, size);
+			response = Arrays.copyOf(response, size);
+		}
+		row[num] = r;
+		col[num] = c;
+		angle[num] = a;
+		response[num] = resp;
+		num++;
+	}
+
+	/**
+	 * Reverse the order of the points.
+	 */
+	public void reverse() {
+		int i, j;
+		float tmp;
+
+		for (i = 0, j = num - 1; i < j; i++, j--) {
+			tmp = row[i];
+			row[i] = row[j];
+			row[j] = tmp;
+			tmp = col[i];
+			col[i] = col[j];
+			col[j] = tmp;
+			tmp = angle[i];
+			angle[i] = angle[j];
+			angle[j] = tmp;
+			tmp = response[i];
+			response[i] = response[j];
+			response[j] = tmp;
+		}
+	}
+
+	/**
+	 * Hand off the points to a line and clear the buffer.
+	 *
+	 * @param line
+	 *            the line that takes the points
+	 */
+	/*
+	 * The arrays of a line have the length of the line. Full arrays are handed
+	 * over as they are and the buffer starts over with new ones; otherwise the
+	 * points are copied once and the buffer keeps its arrays for the next line.
+	 */
+	public void hand_off(LinkedLine line) {
+		line.num = num;
+		if (num == row.length) {
+			line.row = row;
+			line.col = col;
+			line.angle = angle;
+			line.response = response;
+			allocate(LinesUtil.INITIAL_SIZE);
+		} else {
+			line.row = Arrays.copyOf(row, num);
+			line.col = Arrays.copyOf(col, num);
+			line.angle = Arrays.copyOf(angle, num);
+			line.response = Arrays.copyOf(response, num);
+		}
+		num = 0;
+	}
+
+}
@@ -21,18 +21,126 @@
  */
 package de.biomedical_imaging.ij.steger;
 
+import java.util.concurrent.ForkJoinPool;
+
 import org.apache.commons.lang3.mutable.MutableLong;
 
 // TODO: Auto-generated Javadoc
 /**
  * The Class Convol.
  */
-public class Convol {
+public class Convol implements DerivativeFilter {
 
 	/** The sqrt 2 pi inv. */
 	/* 1/sqrt(2*PI) */
 	private final double SQRT_2_PI_INV = 0.398942280401432677939946059935;
 
+	/** The Constant COL_BLOCK. */
+	/* Number of pixels of a row that are accumulated together (fits into L1) */
+	private static final int COL_BLOCK = 512;
+
+	/** The pool used to convolve bands of rows in parallel. */
+	private ForkJoinPool pool;
+
+	/** Accumulate the convolutions in float instead of double. */
+	private boolean floatAccumulation = false;
+
+	/** The context that caches the masks. */
+	private ConvolutionContext context;
+
+	/**
+	 * Instantiates a new convol which convolves on the calling thread.
+	 */
+	public Convol() {
+		this(null);
+	}
+
+	/**
+	 * Instantiates a new convol.
+	 *
+	 * @param pool
+	 *            the pool used to convolve bands of rows in parallel, or null to
+	 *            convolve on the calling thread
+	 */
+	public Convol(ForkJoinPool pool) {
+		this(pool, new ConvolutionContext());
+	}
+
+	/**
+	 * Instantiates a new convol.
+	 *
+	 * @param pool
+	 *            the pool used to convolve bands of rows in parallel, or null to
+	 *            convolve on the calling thread
+	 * @param context
+	 *            the context that caches the masks
+	 */
+	public Convol(ForkJoinPool pool, ConvolutionContext context) {
+		this.pool = pool;
+		this.context = context;
+	}
+
+	/**
+	 * Gets the context.
+	 *
+	 * @return the context that caches the masks
+	 */
+	public ConvolutionContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Sets the context.
+	 *
+	 * @param context
+	 *            the context that caches the masks
+	 */
+	public void setContext(ConvolutionContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Gets the pool.
+	 *
+	 * @return the pool used to convolve bands of rows in parallel, or null
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Sets the pool.
+	 *
+	 * @param pool
+	 *            the pool used to convolve bands of rows in parallel, or null to
+	 *            convolve on the calling thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Checks if the convolutions are accumulated in float.
+	 *
+	 * @return true, if the convolutions are accumulated in float
+	 */
+	public boolean isFloatAccumulation() {
+		return floatAccumulation;
+	}
+
+	/**
+	 * Sets the float accumulation. If set, the convolutions run mask tap by mask
+	 * tap over whole rows in float precision (see convolve_rows_gauss_float), so
+	 * that the JIT compiler can process several pixels per SIMD instruction.
+	 * Otherwise, every pixel is accumulated in double precision.
+	 *
+	 * @param floatAccumulation
+	 *            true to accumulate the convolutions in float
+	 */
+	public void setFloatAccumulation(boolean floatAccumulation) {
+		this.floatAccumulation = floatAccumulation;
+	}
+
 	/*
 	 * Functions to compute the integral, and the 0th and 1st derivative of the
 	 * Gaussian function 1/(sqrt(2*PI)*sigma)*exp(-0.5*x^2/sigma^2)
@@ -111,12 +219,28 @@ public class Convol {
 	 * wird. Übergebe es deswegen als MutableDouble aus CommonsLang
 	 */
 	public double[] compute_gauss_mask_0(MutableLong num, double sigma) {
+		return compute_gauss_mask_0(num, sigma, LinesUtil.MAX_SIZE_MASK_0); /* Error < 0.001 on each side */
+	}
+
+	/**
+	 * Compute gauss mask 0.
+	 *
+	 * @param num
+	 *            the num
+	 * @param sigma
+	 *            the sigma
+	 * @param max_size
+	 *            the size of the mask in multiples of sigma, e.g.
+	 *            LinesUtil.MAX_SIZE_MASK_0
+	 * @return the double[]
+	 */
+	public double[] compute_gauss_mask_0(MutableLong num, double sigma, double max_size) {
 
 		int i, n;
 		double limit;
 		double[] h;
 
-		limit = LinesUtil.MASK_SIZE(LinesUtil.MAX_SIZE_MASK_0, sigma); /* Error < 0.001 on each side */
+		limit = LinesUtil.MASK_SIZE(max_size, sigma);
 		n = (int) limit;
 		h = new double[2 * n + 1];
 		for (i = -n + 1; i <= n - 1; i++)
@@ -196,57 +320,187 @@ public class Convol {
 	 * appropriate one-dimensional mask in convolve_rows_gauss, yielding an
 	 * intermediate float-image h. Then the columns of this image are convolved by
 	 * another appropriate mask in convolve_cols_gauss to yield the final result k.
-	 * At the border of the image the gray values are mirrored.
+	 * At the border of the image the gray values are mirrored. The image is
+	 * copied once into a PaddedImage whose border is as wide as the largest mask,
+	 * and the rows are also convolved in the border columns, so h is mirrored as
+	 * well and neither pass has to mirror its accesses or treat the border
+	 * separately. Since a row of k only depends on the same row of h, h is
+	 * computed one row at a time into a buffer of length width+2*pad, and bands of
+	 * rows can be processed independently.
+	 */
+
+	/*
+	 * The masks of the 0th and 2nd derivative are symmetric, so the double
+	 * precision kernels multiply each pair of taps j and -j once with the sum of
+	 * the two pixels, using the tap mask[n+j]. The mask of the 1st derivative is
+	 * antisymmetric; folding it would turn the sum of two equal pixels, e.g., at
+	 * the mirrored border, into an exact 0 instead of the rounding noise of the
+	 * original sum, which flips the direction of the normals there. It is
+	 * therefore applied tap by tap in the original order -n..n, so the results are
+	 * identical to the original implementation. The rows are convolved by adding
+	 * one tap (or pair of taps) at a time to an accumulator for a block of
+	 * COL_BLOCK pixels of the row, so the image is read row by row instead of one
+	 * column of 2*n+1 pixels per output pixel.
 	 */
 
 	/**
 	 * Convolve rows gauss.
 	 *
 	 * @param image
-	 *            the image
+	 *            the image, padded by at least n
 	 * @param mask
 	 *            the mask
+	 * @param odd
+	 *            true for the antisymmetric mask of the 1st derivative
 	 * @param n
 	 *            the n
+	 * @param acc
+	 *            an accumulator of length COL_BLOCK
 	 * @param h
-	 *            the h
-	 * @param width
-	 *            the width
-	 * @param height
-	 *            the height
+	 *            the h, of length image.getStride()
+	 * @param r
+	 *            the row of h to compute
 	 */
-	/* Convolve the rows of an image with the derivatives of a Gaussian. */
-	private void convolve_rows_gauss(float[] image, double[] mask, int n, float[] h, int width, int height) {
-		int j, r, c, l;
-		double sum;
+	/*
+	 * Convolve the rows of an image with the derivatives of a Gaussian. Only the
+	 * row r is computed and returned in h[0..stride-1], including the padded
+	 * columns.
+	 */
+	private void convolve_rows_gauss(PaddedImage image, double[] mask, boolean odd, int n, double[] acc, float[] h,
+			int r) {
+		int j, c, c0, len, l, lu, ld, stride;
+		double m;
+		float[] data = image.getData();
 
-		/* Inner region */
-		for (r = n; r < height - n; r++) {
-			for (c = 0; c < width; c++) {
-				l = LinesUtil.LINCOOR(r, c, width);
-				sum = 0.0;
-				for (j = -n; j <= n; j++)
-					sum += (double) (image[(l + j * width)]) * mask[(j + n)];
-				h[l] = (float) sum;
+		stride = image.getStride();
+		for (c0 = 0; c0 < stride; c0 += COL_BLOCK) {
+			len = Math.min(COL_BLOCK, stride - c0);
+			l = image.index(r, -image.getPad()) + c0;
+			if (odd) {
+				convolve_rows_gauss_odd(data, stride, l, mask, n, acc, len);
+			} else {
+				m = mask[n];
+				for (c = 0; c < len; c++)
+					acc[c] = m * data[l + c];
+				for (j = 1; j <= n; j++) {
+					lu = l - j * stride;
+					ld = l + j * stride;
+					m = mask[n + j];
+					for (c = 0; c < len; c++)
+						acc[c] += m * ((double) data[ld + c] + data[lu + c]);
+				}
 			}
+			for (c = 0; c < len; c++)
+				h[c0 + c] = (float) acc[c];
 		}
-		/* Border regions */
-		for (r = 0; r < n; r++) {
-			for (c = 0; c < width; c++) {
-				l = LinesUtil.LINCOOR(r, c, width);
-				sum = 0.0;
-				for (j = -n; j <= n; j++)
-					sum += (double) (image[LinesUtil.LINCOOR(LinesUtil.BR(r + j, height), c, width)]) * mask[(j + n)];
-				h[l] = (float) sum;
-			}
+	}
+
+	/**
+	 * Convolve rows gauss odd.
+	 *
+	 * @param data
+	 *            the data of the padded image
+	 * @param stride
+	 *            the stride of the padded image
+	 * @param l
+	 *            the index of the first pixel of the block
+	 * @param mask
+	 *            the mask of the 1st derivative
+	 * @param n
+	 *            the n
+	 * @param acc
+	 *            the accumulator
+	 * @param len
+	 *            the length of the block
+	 */
+	private void convolve_rows_gauss_odd(float[] data, int stride, int l, double[] mask, int n, double[] acc,
+			int len) {
+		int j, c, lj;
+		double m;
+
+		for (c = 0; c < len; c++)
+			acc[c] = 0.0;
+		for (j = -n; j <= n; j++) {
+			lj = l + j * stride;
+			m = mask[(j + n)];
+			for (c = 0; c < len; c++)
+				acc[c] += (double) (data[lj + c]) * m;
 		}
-		for (r = height - n; r < height; r++) {
-			for (c = 0; c < width; c++) {
-				l = LinesUtil.LINCOOR(r, c, width);
-				sum = 0.0;
-				for (j = -n; j <= n; j++)
-					sum += (double) (image[LinesUtil.LINCOOR(LinesUtil.BR(r + j, height), c, width)]) * mask[(j + n)];
-				h[l] = (float) sum;
+	}
+
+	/**
+	 * Convolve rows gauss.
+	 *
+	 * @param image
+	 *            the image, padded by at least n2
+	 * @param mask0
+	 *            the mask of the 0th derivative
+	 * @param n0
+	 *            the n0
+	 * @param mask1
+	 *            the mask of the 1st derivative
+	 * @param n1
+	 *            the n1
+	 * @param mask2
+	 *            the mask of the 2nd derivative
+	 * @param n2
+	 *            the n2
+	 * @param acc
+	 *            three accumulators of length COL_BLOCK
+	 * @param h0
+	 *            the row convolved with the 0th derivative
+	 * @param h1
+	 *            the row convolved with the 1st derivative
+	 * @param h2
+	 *            the row convolved with the 2nd derivative
+	 * @param r
+	 *            the row of h0, h1 and h2 to compute
+	 */
+	/*
+	 * Convolve row r with the masks of the 0th and 2nd derivative at once, so
+	 * every pair of rows r-j and r+j is only read once for the two masks, and then
+	 * with the mask of the 1st derivative while the block is still in the cache.
+	 * Requires n0 <= n2, which holds for the mask sizes in LinesUtil.
+	 */
+	private void convolve_rows_gauss(PaddedImage image, double[] mask0, int n0, double[] mask1, int n1,
+			double[] mask2, int n2, double[][] acc, float[] h0, float[] h1, float[] h2, int r) {
+		int j, c, c0, len, l, lu, ld, stride;
+		double m0, m2, x;
+		double[] a0 = acc[0], a1 = acc[1], a2 = acc[2];
+		float[] data = image.getData();
+
+		stride = image.getStride();
+		for (c0 = 0; c0 < stride; c0 += COL_BLOCK) {
+			len = Math.min(COL_BLOCK, stride - c0);
+			l = image.index(r, -image.getPad()) + c0;
+			m0 = mask0[n0];
+			m2 = mask2[n2];
+			for (c = 0; c < len; c++) {
+				x = data[l + c];
+				a0[c] = m0 * x;
+				a2[c] = m2 * x;
+			}
+			for (j = 1; j <= n2; j++) {
+				lu = l - j * stride;
+				ld = l + j * stride;
+				m2 = mask2[n2 + j];
+				if (j <= n0) {
+					m0 = mask0[n0 + j];
+					for (c = 0; c < len; c++) {
+						x = (double) data[ld + c] + data[lu + c];
+						a0[c] += m0 * x;
+						a2[c] += m2 * x;
+					}
+				} else {
+					for (c = 0; c < len; c++)
+						a2[c] += m2 * ((double) data[ld + c] + data[lu + c]);
+				}
+			}
+			convolve_rows_gauss_odd(data, stride, l, mask1, n1, a1, len);
+			for (c = 0; c < len; c++) {
+				h0[c0 + c] = (float) a0[c];
+				h1[c0 + c] = (float) a1[c];
+				h2[c0 + c] = (float) a2[c];
 			}
 		}
 	}
@@ -255,51 +509,132 @@ public class Convol {
 	 * Convolve cols gauss.
 	 *
 	 * @param h
-	 *            the h
+	 *            the h, padded by at least n
+	 * @param o
+	 *            the index of column 0 in h
 	 * @param mask
 	 *            the mask
+	 * @param odd
+	 *            true for the antisymmetric mask of the 1st derivative
 	 * @param n
 	 *            the n
 	 * @param k
 	 *            the k
 	 * @param width
 	 *            the width
-	 * @param height
-	 *            the height
+	 * @param r
+	 *            the row of k to compute
 	 */
-	/* Convolve the columns of an image with the derivatives of a Gaussian. */
-	private void convolve_cols_gauss(float[] h, double[] mask, int n, float[] k, int width, int height) {
-		int j, r, c, l;
+	/*
+	 * Convolve the columns of an image with the derivatives of a Gaussian. The row
+	 * h[o..o+width-1] is convolved and written to row r of k.
+	 */
+	private void convolve_cols_gauss(float[] h, int o, double[] mask, boolean odd, int n, float[] k, int width,
+			int r) {
+		int j, c, l;
 		double sum;
 
-		/* Inner region */
-		for (r = 0; r < height; r++) {
-			for (c = n; c < width - n; c++) {
-				l = LinesUtil.LINCOOR(r, c, width);
+		l = LinesUtil.LINCOOR(r, 0, width) - o;
+		if (odd) {
+			for (c = o; c < o + width; c++) {
 				sum = 0.0;
 				for (j = -n; j <= n; j++)
-					sum += h[(l + j)] * mask[(j + n)];
-				k[l] = (float) sum;
+					sum += h[(c + j)] * mask[(j + n)];
+				k[l + c] = (float) sum;
 			}
-		}
-		/* Border regions */
-		for (r = 0; r < height; r++) {
-			for (c = 0; c < n; c++) {
-				l = LinesUtil.LINCOOR(r, c, width);
-				sum = 0.0;
-				for (j = -n; j <= n; j++)
-					sum += h[LinesUtil.LINCOOR(r, LinesUtil.BC(c + j, width), width)] * mask[(j + n)];
-				k[l] = (float) sum;
+		} else {
+			for (c = o; c < o + width; c++) {
+				sum = mask[n] * h[c];
+				for (j = 1; j <= n; j++)
+					sum += mask[n + j] * ((double) h[(c + j)] + h[(c - j)]);
+				k[l + c] = (float) sum;
 			}
 		}
-		for (r = 0; r < height; r++) {
-			for (c = width - n; c < width; c++) {
-				l = LinesUtil.LINCOOR(r, c, width);
-				sum = 0.0;
-				for (j = -n; j <= n; j++)
-					sum += h[LinesUtil.LINCOOR(r, LinesUtil.BC(c + j, width), width)] * mask[(j + n)];
-				k[l] = (float) sum;
-			}
+	}
+
+	/*
+	 * Float variants of convolve_rows_gauss and convolve_cols_gauss. Instead of
+	 * summing all taps of the mask for one pixel, they add one tap of the mask to
+	 * a whole row at a time. These loops have no index arithmetic besides the
+	 * loop counter and no conversion between float and double, so the JIT
+	 * compiler (HotSpot's SuperWord optimization) processes several pixels per
+	 * SIMD instruction. Like the double precision kernels, they read the
+	 * mirrored border from the padding instead of treating it separately.
+	 *
+	 * The accumulation in float is less accurate than the accumulation in
+	 * double. With the unit roundoff u = 2^-24, the masks mr and mc of size
+	 * 2*nr+1 and 2*nc+1, and ||m||_1 the sum of the absolute values of a mask,
+	 * the difference to the double path is bounded by (to first order)
+	 *
+	 * |k_float - k_double| <= (2*nr + 2*nc + 5) * u * ||mr||_1 * ||mc||_1 * max|image|.
+	 *
+	 * For 8-bit images and sigma = 1.5 this is below 3e-4 for all five
+	 * derivatives, i.e., far below the useful range of the thresholds. The
+	 * observed differences on noise images are at most about 1.5e-5.
+	 */
+
+	/**
+	 * Convolve rows gauss float.
+	 *
+	 * @param image
+	 *            the image, padded by at least n
+	 * @param mask
+	 *            the mask
+	 * @param n
+	 *            the n
+	 * @param h
+	 *            the h, of length image.getStride()
+	 * @param r
+	 *            the row of h to compute
+	 */
+	private void convolve_rows_gauss_float(PaddedImage image, float[] mask, int n, float[] h, int r) {
+		int j, c, l, stride;
+		float m;
+		float[] data = image.getData();
+
+		stride = image.getStride();
+		l = image.index(r - n, -image.getPad());
+		m = mask[0];
+		for (c = 0; c < stride; c++)
+			h[c] = m * data[l + c];
+		for (j = -n + 1; j <= n; j++) {
+			l += stride;
+			m = mask[(j + n)];
+			for (c = 0; c < stride; c++)
+				h[c] += m * data[l + c];
+		}
+	}
+
+	/**
+	 * Convolve cols gauss float.
+	 *
+	 * @param h
+	 *            the h, padded by at least n
+	 * @param o
+	 *            the index of column 0 in h
+	 * @param mask
+	 *            the mask
+	 * @param n
+	 *            the n
+	 * @param k
+	 *            the k
+	 * @param width
+	 *            the width
+	 * @param r
+	 *            the row of k to compute
+	 */
+	private void convolve_cols_gauss_float(float[] h, int o, float[] mask, int n, float[] k, int width, int r) {
+		int j, c, l;
+		float m;
+
+		l = LinesUtil.LINCOOR(r, 0, width);
+		m = mask[0];
+		for (c = 0; c < width; c++)
+			k[l + c] = m * h[o + c - n];
+		for (j = -n + 1; j <= n; j++) {
+			m = mask[(j + n)];
+			for (c = 0; c < width; c++)
+				k[l + c] += m * h[o + c + j];
 		}
 	}
 
@@ -320,44 +655,175 @@ public class Convol {
 	 *            the deriv type
 	 */
 	/* Convolve an image with a derivative of the Gaussian. */
-	public void convolve_gauss(float[] image, float[] k, int width, int height, double sigma, int deriv_type) {
-		double[] hr = null, hc = null;
-		double[] maskr, maskc;
-		MutableLong nr = new MutableLong(), nc = new MutableLong();
-		float[] h;
-
-		h = new float[(width * height)];
+	public void convolve_gauss(final float[] image, final float[] k, final int width, final int height, double sigma,
+			int deriv_type) {
+		int dr = 0, dc = 0;
 
 		switch (deriv_type) {
+		case LinesUtil.DERIV_0:
+			dr = 0;
+			dc = 0;
+			break;
 		case LinesUtil.DERIV_R:
-			hr = compute_gauss_mask_1(nr, sigma);
-			hc = compute_gauss_mask_0(nc, sigma);
+			dr = 1;
+			dc = 0;
 			break;
 		case LinesUtil.DERIV_C:
-			hr = compute_gauss_mask_0(nr, sigma);
-			hc = compute_gauss_mask_1(nc, sigma);
+			dr = 0;
+			dc = 1;
 			break;
 		case LinesUtil.DERIV_RR:
-			hr = compute_gauss_mask_2(nr, sigma);
-			hc = compute_gauss_mask_0(nc, sigma);
+			dr = 2;
+			dc = 0;
 			break;
 		case LinesUtil.DERIV_RC:
-			hr = compute_gauss_mask_1(nr, sigma);
-			hc = compute_gauss_mask_1(nc, sigma);
+			dr = 1;
+			dc = 1;
 			break;
 		case LinesUtil.DERIV_CC:
-			hr = compute_gauss_mask_0(nr, sigma);
-			hc = compute_gauss_mask_2(nc, sigma);
+			dr = 0;
+			dc = 2;
+			break;
+		case LinesUtil.DERIV_0_WIDE:
+			dr = ConvolutionContext.MASK_0_WIDE;
+			dc = ConvolutionContext.MASK_0_WIDE;
 			break;
 		}
 
-		maskr = hr;// + nr; Wird ersetzt in den eigentlichen Funktionen, indem ich z.B. in
-					// convolve_rows_gauss immer beim Zugriff auf mask n dazuaddiere
-		maskc = hc;// + nc;
+		/*
+		 * The masks are used as arrays with range [0:2*n]; convolve_rows_gauss and
+		 * convolve_cols_gauss add n to every access.
+		 */
+		final double[] maskr = context.get_gauss_mask(dr, sigma);
+		final double[] maskc = context.get_gauss_mask(dc, sigma);
+		final boolean oddr = (dr == 1);
+		final boolean oddc = (dc == 1);
+		final float[] fmaskr = context.get_float_gauss_mask(dr, sigma);
+		final float[] fmaskc = context.get_float_gauss_mask(dc, sigma);
+		final int n_r = (maskr.length - 1) / 2;
+		final int n_c = (maskc.length - 1) / 2;
+		final boolean use_float = floatAccumulation;
+		final PaddedImage padded = new PaddedImage(context, width, height, Math.max(n_r, n_c));
+
+		padded.set_image(image);
+		BandExecutor.execute(pool, 0, height, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				float[] h = new float[padded.getStride()];
+				double[] acc = new double[COL_BLOCK];
+				int o = padded.getPad();
+				for (int r = from; r < to; r++) {
+					if (use_float) {
+						convolve_rows_gauss_float(padded, fmaskr, n_r, h, r);
+						convolve_cols_gauss_float(h, o, fmaskc, n_c, k, width, r);
+					} else {
+						convolve_rows_gauss(padded, maskr, oddr, n_r, acc, h, r);
+						convolve_cols_gauss(h, o, maskc, oddc, n_c, k, width, r);
+					}
+				}
+			}
+		});
+		padded.release(context);
+	}
+
+	/**
+	 * Cost.
+	 *
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param sigma
+	 *            the sigma
+	 * @return the estimated cost of convolve_derivatives in multiply-adds
+	 */
+	/*
+	 * convolve_derivatives applies the masks of the 0th and 1st derivative
+	 * three times (once to the rows and twice to the columns) and the mask of
+	 * the 2nd derivative twice to every pixel. The float accumulation and the
+	 * double accumulation, which folds the masks of the 0th and 2nd derivative,
+	 * take about the same time per multiply-add.
+	 */
+	public double cost(int width, int height, double sigma) {
+		double taps;
+
+		taps = 3 * (2 * LinesUtil.MASK_SIZE(LinesUtil.MAX_SIZE_MASK_0, sigma) + 1)
+				+ 3 * (2 * LinesUtil.MASK_SIZE(LinesUtil.MAX_SIZE_MASK_1, sigma) + 1)
+				+ 2 * (2 * LinesUtil.MASK_SIZE(LinesUtil.MAX_SIZE_MASK_2, sigma) + 1);
+		return (double) width * height * taps;
+	}
 
-		convolve_rows_gauss(image, maskr, nr.intValue(), h, width, height);
-		convolve_cols_gauss(h, maskc, nc.intValue(), k, width, height);
+	/**
+	 * Convolve derivatives.
+	 *
+	 * @param image
+	 *            the image
+	 * @param k
+	 *            the five derivative images in the order DERIV_R, DERIV_C,
+	 *            DERIV_RR, DERIV_RC, DERIV_CC
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param sigma
+	 *            the sigma
+	 */
+	/*
+	 * Convolve an image with all five derivatives of the Gaussian that are needed
+	 * for the line detection at once. The five derivatives only use three
+	 * different row masks (the 0th derivative for DERIV_C and DERIV_CC, the 1st
+	 * for DERIV_R and DERIV_RC, and the 2nd for DERIV_RR), so each row of the
+	 * image is convolved three times instead of five, and the three intermediate
+	 * rows are shared by the five column convolutions while they are still in the
+	 * cache. The result is identical to five calls of convolve_gauss.
+	 */
+	@Override
+	public void convolve_derivatives(final float[] image, final float[][] k, final int width, final int height,
+			double sigma) {
+		final double[] mask0 = context.get_gauss_mask(0, sigma);
+		final double[] mask1 = context.get_gauss_mask(1, sigma);
+		final double[] mask2 = context.get_gauss_mask(2, sigma);
+		final float[] fmask0 = context.get_float_gauss_mask(0, sigma);
+		final float[] fmask1 = context.get_float_gauss_mask(1, sigma);
+		final float[] fmask2 = context.get_float_gauss_mask(2, sigma);
+		final int num0 = (mask0.length - 1) / 2;
+		final int num1 = (mask1.length - 1) / 2;
+		final int num2 = (mask2.length - 1) / 2;
+		final boolean use_float = floatAccumulation;
+		/* The mask of the 2nd derivative is the largest one */
+		final PaddedImage padded = new PaddedImage(context, width, height, num2);
 
+		padded.set_image(image);
+		BandExecutor.execute(pool, 0, height, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				float[] h0 = new float[padded.getStride()];
+				float[] h1 = new float[padded.getStride()];
+				float[] h2 = new float[padded.getStride()];
+				double[][] acc = new double[3][COL_BLOCK];
+				int o = padded.getPad();
+				for (int r = from; r < to; r++) {
+					if (use_float) {
+						convolve_rows_gauss_float(padded, fmask0, num0, h0, r);
+						convolve_rows_gauss_float(padded, fmask1, num1, h1, r);
+						convolve_rows_gauss_float(padded, fmask2, num2, h2, r);
+						convolve_cols_gauss_float(h1, o, fmask0, num0, k[0], width, r); /* DERIV_R */
+						convolve_cols_gauss_float(h0, o, fmask1, num1, k[1], width, r); /* DERIV_C */
+						convolve_cols_gauss_float(h2, o, fmask0, num0, k[2], width, r); /* DERIV_RR */
+						convolve_cols_gauss_float(h1, o, fmask1, num1, k[3], width, r); /* DERIV_RC */
+						convolve_cols_gauss_float(h0, o, fmask2, num2, k[4], width, r); /* DERIV_CC */
+					} else {
+						convolve_rows_gauss(padded, mask0, num0, mask1, num1, mask2, num2, acc, h0, h1, h2, r);
+						convolve_cols_gauss(h1, o, mask0, false, num0, k[0], width, r); /* DERIV_R */
+						convolve_cols_gauss(h0, o, mask1, true, num1, k[1], width, r); /* DERIV_C */
+						convolve_cols_gauss(h2, o, mask0, false, num0, k[2], width, r); /* DERIV_RR */
+						convolve_cols_gauss(h1, o, mask1, true, num1, k[3], width, r); /* DERIV_RC */
+						convolve_cols_gauss(h0, o, mask2, false, num2, k[4], width, r); /* DERIV_CC */
+					}
+				}
+			}
+		});
+		padded.release(context);
 	}
 
 }
@@ -0,0 +1,382 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.mutable.MutableLong;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ConvolutionContext.
+ */
+/*
+ * State that can be reused from one image to the next one: the Gaussian masks
+ * of Convol, keyed by sigma and derivative, and a pool of image sized scratch
+ * buffers. When the frames of a stack are processed with the same context,
+ * the masks are computed once and the buffers of Position, Link, and Width are
+ * allocated once instead of once per frame. The buffers are matched by size,
+ * so the image sized buffers and the padded buffers of PaddedImage are kept
+ * side by side. Use one context per thread. The pool is bounded: it drops its
+ * buffers when set_image_size is called with a new size, and it keeps at most
+ * maxRetainedBytes of free buffers, so that the buffers of very large images
+ * are given back to the garbage collector after the detection.
+ */
+public class ConvolutionContext {
+
+	/** The masks. */
+	/* Key sigma:deriv, value the mask in the range [-n:n] */
+	private Map<String, double[]> masks = new HashMap<String, double[]>();
+
+	/** The float masks. */
+	private Map<String, float[]> floatMasks = new HashMap<String, float[]>();
+
+	/** The half masks. */
+	private Map<String, double[]> halfMasks = new HashMap<String, double[]>();
+
+	/** The fixed point half masks. */
+	private Map<String, int[]> fixedMasks = new HashMap<String, int[]>();
+
+	/** The Constant MASK_0_WIDE. */
+	/*
+	 * The derivative of the smoothing mask that reaches as far as the mask of
+	 * the 2nd derivative (LinesUtil.MAX_SIZE_MASK_2 instead of MAX_SIZE_MASK_0)
+	 */
+	public static final int MASK_0_WIDE = 3;
+
+	/** The Constant DEFAULT_MAX_RETAINED_BYTES. */
+	public static final long DEFAULT_MAX_RETAINED_BYTES = 256L << 20;
+
+	/** The maximum number of bytes of the free buffers. */
+	private long maxRetainedBytes = DEFAULT_MAX_RETAINED_BYTES;
+
+	/** The number of bytes of the free buffers. */
+	private long retainedBytes = 0;
+
+	/** The width of the current image, or -1. */
+	private int width = -1;
+
+	/** The height of the current image, or -1. */
+	private int height = -1;
+
+	/** The free float buffers. */
+	private ArrayList<float[]> freeFloat = new ArrayList<float[]>();
+
+	/** The free int buffers. */
+	private ArrayList<int[]> freeInt = new ArrayList<int[]>();
+
+	/** The free byte buffers. */
+	private ArrayList<byte[]> freeByte = new ArrayList<byte[]>();
+
+	/**
+	 * Gets the gauss mask.
+	 *
+	 * @param deriv
+	 *            the derivative (0, 1, 2, or MASK_0_WIDE)
+	 * @param sigma
+	 *            the sigma
+	 * @return the mask of compute_gauss_mask_0/1/2 of Convol, must not be
+	 *         modified; n is (length-1)/2
+	 */
+	public synchronized double[] get_gauss_mask(int deriv, double sigma) {
+		String key = sigma + ":" + deriv;
+		double[] mask = masks.get(key);
+		MutableLong num;
+		Convol convol;
+
+		if (mask == null) {
+			num = new MutableLong();
+			convol = new Convol();
+			if (deriv == 0)
+				mask = convol.compute_gauss_mask_0(num, sigma);
+			else if (deriv == MASK_0_WIDE)
+				mask = convol.compute_gauss_mask_0(num, sigma, LinesUtil.MAX_SIZE_MASK_2);
+			else if (deriv == 1)
+				mask = convol.compute_gauss_mask_1(num, sigma);
+			else
+				mask = convol.compute_gauss_mask_2(num, sigma);
+			masks.put(key, mask);
+		}
+		return mask;
+	}
+
+	/**
+	 * Gets the float gauss mask.
+	 *
+	 * @param deriv
+	 *            the derivative (0, 1, 2, or MASK_0_WIDE)
+	 * @param sigma
+	 *            the sigma
+	 * @return get_gauss_mask converted to float, must not be modified
+	 */
+	public synchronized float[] get_float_gauss_mask(int deriv, double sigma) {
+		String key = sigma + ":" + deriv;
+		float[] fmask = floatMasks.get(key);
+		double[] mask;
+		int i;
+
+		if (fmask == null) {
+			mask = get_gauss_mask(deriv, sigma);
+			fmask = new float[mask.length];
+			for (i = 0; i < mask.length; i++)
+				fmask[i] = (float) mask[i];
+			floatMasks.put(key, fmask);
+		}
+		return fmask;
+	}
+
+	/**
+	 * Gets the half gauss mask.
+	 *
+	 * @param deriv
+	 *            the derivative (0, 1, 2, or MASK_0_WIDE)
+	 * @param sigma
+	 *            the sigma
+	 * @return the taps [0:n] of get_gauss_mask, must not be modified
+	 */
+	/*
+	 * The masks of the 0th and 2nd derivative are symmetric, the mask of the 1st
+	 * derivative is antisymmetric, so mask[n-j] = mask[n+j] or mask[n-j] =
+	 * -mask[n+j]. A pair of taps is therefore applied with one multiplication
+	 * to the sum or the difference of the two pixels, with the tap mask[n+j]
+	 * unchanged, and tap 0 of the 1st derivative is 0.
+	 */
+	public synchronized double[] get_half_gauss_mask(int deriv, double sigma) {
+		String key = sigma + ":" + deriv;
+		double[] half = halfMasks.get(key);
+		double[] mask;
+		int j, n;
+
+		if (half == null) {
+			mask = get_gauss_mask(deriv, sigma);
+			n = (mask.length - 1) / 2;
+			half = new double[n + 1];
+			half[0] = (deriv == 1) ? 0.0 : mask[n];
+			for (j = 1; j <= n; j++)
+				half[j] = mask[n + j];
+			halfMasks.put(key, half);
+		}
+		return half;
+	}
+
+	/**
+	 * Gets the fixed point half gauss mask.
+	 *
+	 * @param deriv
+	 *            the derivative (0, 1, 2, or MASK_0_WIDE)
+	 * @param sigma
+	 *            the sigma
+	 * @param shift
+	 *            the number of fractional bits
+	 * @return the taps of get_half_gauss_mask multiplied by 2^shift and rounded,
+	 *         must not be modified
+	 */
+	public synchronized int[] get_fixed_gauss_mask(int deriv, double sigma, int shift) {
+		String key = sigma + ":" + deriv + ":" + shift;
+		int[] fixed = fixedMasks.get(key);
+		double[] half;
+		int j;
+
+		if (fixed == null) {
+			half = get_half_gauss_mask(deriv, sigma);
+			fixed = new int[half.length];
+			for (j = 0; j < half.length; j++)
+				fixed[j] = (int) Math.round(Math.scalb(half[j], shift));
+			fixedMasks.put(key, fixed);
+		}
+		return fixed;
+	}
+
+	/**
+	 * Take float.
+	 *
+	 * @param size
+	 *            the size
+	 * @return a buffer of the given size that is filled with 0
+	 */
+	public synchronized float[] take_float(int size) {
+		float[] buf = null;
+
+		for (int i = freeFloat.size() - 1; i >= 0 && buf == null; i--) {
+			if (freeFloat.get(i).length == size)
+				buf = freeFloat.remove(i);
+		}
+		if (buf == null)
+			return new float[size];
+		retainedBytes -= 4L * size;
+		java.util.Arrays.fill(buf, 0);
+		return buf;
+	}
+
+	/**
+	 * Take int.
+	 *
+	 * @param size
+	 *            the size
+	 * @return a buffer of the given size that is filled with 0
+	 */
+	public synchronized int[] take_int(int size) {
+		int[] buf = null;
+
+		for (int i = freeInt.size() - 1; i >= 0 && buf == null; i--) {
+			if (freeInt.get(i).length == size)
+				buf = freeInt.remove(i);
+		}
+		if (buf == null)
+			return new int[size];
+		retainedBytes -= 4L * size;
+		java.util.Arrays.fill(buf, 0);
+		return buf;
+	}
+
+	/**
+	 * Take byte.
+	 *
+	 * @param size
+	 *            the size
+	 * @return a buffer of the given size that is filled with 0
+	 */
+	public synchronized byte[] take_byte(int size) {
+		byte[] buf = null;
+
+		for (int i = freeByte.size() - 1; i >= 0 && buf == null; i--) {
+			if (freeByte.get(i).length == size)
+				buf = freeByte.remove(i);
+		}
+		if (buf == null)
+			return new byte[size];
+		retainedBytes -= 1L * size;
+		java.util.Arrays.fill(buf, (byte) 0);
+		return buf;
+	}
+
+	/**
+	 * Release.
+	 *
+	 * @param buf
+	 *            a buffer that is not used anymore
+	 */
+	public synchronized void release(float[] buf) {
+		if (buf != null && retainedBytes + 4L * buf.length <= maxRetainedBytes) {
+			freeFloat.add(buf);
+			retainedBytes += 4L * buf.length;
+		}
+	}
+
+	/**
+	 * Release.
+	 *
+	 * @param buf
+	 *            a buffer that is not used anymore
+	 */
+	public synchronized void release(int[] buf) {
+		if (buf != null && retainedBytes + 4L * buf.length <= maxRetainedBytes) {
+			freeInt.add(buf);
+			retainedBytes += 4L * buf.length;
+		}
+	}
+
+	/**
+	 * Release.
+	 *
+	 * @param buf
+	 *            a buffer that is not used anymore
+	 */
+	public synchronized void release(byte[] buf) {
+		if (buf != null && retainedBytes + 1L * buf.length <= maxRetainedBytes) {
+			freeByte.add(buf);
+			retainedBytes += 1L * buf.length;
+		}
+	}
+
+	/**
+	 * Sets the size of the image that is processed next. The free buffers are
+	 * dropped if the size differs from the previous image, since they cannot be
+	 * reused for the new size. The masks are kept.
+	 *
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 */
+	public synchronized void set_image_size(int width, int height) {
+		if (width != this.width || height != this.height)
+			drop_buffers();
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Gets the max retained bytes.
+	 *
+	 * @return the maximum number of bytes of free buffers that are kept
+	 */
+	public synchronized long getMaxRetainedBytes() {
+		return maxRetainedBytes;
+	}
+
+	/**
+	 * Sets the max retained bytes. Released buffers that do not fit are left to
+	 * the garbage collector.
+	 *
+	 * @param maxRetainedBytes
+	 *            the maximum number of bytes of free buffers that are kept
+	 */
+	public synchronized void setMaxRetainedBytes(long maxRetainedBytes) {
+		this.maxRetainedBytes = maxRetainedBytes;
+		if (retainedBytes > maxRetainedBytes)
+			drop_buffers();
+	}
+
+	/**
+	 * Gets the retained bytes.
+	 *
+	 * @return the number of bytes of the free buffers
+	 */
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	/**
+	 * Drop the free buffers and keep the masks.
+	 */
+	public synchronized void drop_buffers() {
+		freeFloat.clear();
+		freeInt.clear();
+		freeByte.clear();
+		retainedBytes = 0;
+	}
+
+	/**
+	 * Clear the masks and drop the buffers.
+	 */
+	public synchronized void clear() {
+		masks.clear();
+		floatMasks.clear();
+		halfMasks.clear();
+		fixedMasks.clear();
+		drop_buffers();
+	}
+
+}
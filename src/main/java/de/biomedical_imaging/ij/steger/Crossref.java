@@ -34,10 +34,10 @@ package de.biomedical_imaging.ij.steger;
 public class Crossref implements Comparable<Crossref> {
 
 	/** The x. */
-	short x;
+	int x;
 
 	/** The y. */
-	short y;
+	int y;
 
 	/** The value. */
 	double value;
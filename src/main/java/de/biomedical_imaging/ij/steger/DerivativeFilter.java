@@ -0,0 +1,48 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+// TODO: Auto-generated Javadoc
+/**
+ * Computes the five partial derivatives of the Gaussian smoothed image that
+ * are needed by the line detection.
+ */
+public interface DerivativeFilter {
+
+	/**
+	 * Convolve derivatives.
+	 *
+	 * @param image
+	 *            the image
+	 * @param k
+	 *            the five derivative images in the order DERIV_R, DERIV_C,
+	 *            DERIV_RR, DERIV_RC, DERIV_CC
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param sigma
+	 *            the sigma
+	 */
+	void convolve_derivatives(float[] image, float[][] k, int width, int height, double sigma);
+
+}
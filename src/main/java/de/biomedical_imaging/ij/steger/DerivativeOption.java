@@ -0,0 +1,49 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+// TODO: Auto-generated Javadoc
+/**
+ * Algorithm options for the {@link DerivativeFilter} that computes the
+ * partial derivatives of the image.
+ */
+public enum DerivativeOption {
+
+	/** The faster one of FIR and FFT for the sigma and the image size. */
+	AUTO,
+	/** Convolution with the sampled Gaussian masks (see {@link Convol}). */
+	FIR,
+	/** Convolution with the same masks in the frequency domain (see {@link FFTGauss}). */
+	FFT,
+	/** Recursive filtering (see {@link RecursiveGauss}). */
+	RECURSIVE,
+	/**
+	 * One Gaussian smoothing and finite differences, approximate (see
+	 * {@link FiniteDifferenceGauss}).
+	 */
+	FINITE_DIFFERENCE,
+	/**
+	 * Convolution of 8-bit images with the masks of FIR rounded to fixed point,
+	 * approximate (see {@link FixedPointConvol}). Other images use FIR.
+	 */
+	FIXED_POINT;
+}
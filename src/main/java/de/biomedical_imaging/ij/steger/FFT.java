@@ -0,0 +1,310 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class FFT.
+ */
+/*
+ * Complex fast Fourier transform of a fixed length n = 2^a*3^b*5^c. The
+ * transform is computed with the self-sorting (Stockham) variant of the
+ * mixed-radix Cooley-Tukey algorithm, which needs a work array of length n but
+ * no bit reversal. The forward transform computes
+ * X[f] = sum_t x[t]*exp(-2*PI*i*f*t/n), the inverse transform computes
+ * x[t] = 1/n*sum_f X[f]*exp(2*PI*i*f*t/n).
+ */
+public class FFT {
+
+	/** The Constant SIN_3. */
+	/* sin(2*PI/3) */
+	private static final double SIN_3 = 0.86602540378443864676;
+
+	/** The Constant COS_5_1. */
+	/* cos(2*PI/5) */
+	private static final double COS_5_1 = 0.30901699437494742410;
+
+	/** The Constant COS_5_2. */
+	/* cos(4*PI/5) */
+	private static final double COS_5_2 = -0.80901699437494742410;
+
+	/** The Constant SIN_5_1. */
+	/* sin(2*PI/5) */
+	private static final double SIN_5_1 = 0.95105651629515357212;
+
+	/** The Constant SIN_5_2. */
+	/* sin(4*PI/5) */
+	private static final double SIN_5_2 = 0.58778525229247312917;
+
+	/** The length. */
+	private int n;
+
+	/** The radices of the stages. */
+	private int[] factors;
+
+	/** The cos table. */
+	/* cos(2*PI*k/n) for k in [0,n) */
+	private double[] cos;
+
+	/** The sin table. */
+	/* sin(2*PI*k/n) for k in [0,n) */
+	private double[] sin;
+
+	/**
+	 * Instantiates a new fft.
+	 *
+	 * @param n
+	 *            the length, must be a product of powers of 2, 3 and 5
+	 */
+	public FFT(int n) {
+		int[] f = new int[32];
+		int num = 0, m = n, k;
+
+		if (n < 1 || good_size(n) != n)
+			throw new IllegalArgumentException("Length must be a product of 2, 3 and 5: " + n);
+		while (m % 4 == 0) {
+			f[num++] = 4;
+			m /= 4;
+		}
+		while (m % 2 == 0) {
+			f[num++] = 2;
+			m /= 2;
+		}
+		while (m % 3 == 0) {
+			f[num++] = 3;
+			m /= 3;
+		}
+		while (m % 5 == 0) {
+			f[num++] = 5;
+			m /= 5;
+		}
+		this.n = n;
+		factors = new int[num];
+		System.arraycopy(f, 0, factors, 0, num);
+		cos = new double[n];
+		sin = new double[n];
+		for (k = 0; k < n; k++) {
+			cos[k] = Math.cos(2 * Math.PI * k / n);
+			sin[k] = Math.sin(2 * Math.PI * k / n);
+		}
+	}
+
+	/**
+	 * Gets the length.
+	 *
+	 * @return the length
+	 */
+	public int getLength() {
+		return n;
+	}
+
+	/**
+	 * Good size.
+	 *
+	 * @param n
+	 *            the minimum length
+	 * @return the smallest length &gt;= n that is a product of powers of 2, 3
+	 *         and 5
+	 */
+	public static int good_size(int n) {
+		int m, best, p2, p3, p5;
+
+		if (n <= 1)
+			return 1;
+		best = Integer.MAX_VALUE;
+		for (p5 = 1; p5 < best && p5 > 0; p5 *= 5) {
+			for (p3 = p5; p3 < best && p3 > 0; p3 *= 3) {
+				m = p3;
+				while (m < n && m > 0)
+					m *= 2;
+				if (m >= n && m < best)
+					best = m;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Transform.
+	 *
+	 * @param re
+	 *            the real part, overwritten by the result
+	 * @param im
+	 *            the imaginary part, overwritten by the result
+	 * @param wre
+	 *            a work array of length n
+	 * @param wim
+	 *            a work array of length n
+	 * @param inverse
+	 *            true for the inverse transform
+	 */
+	public void transform(double[] re, double[] im, double[] wre, double[] wim, boolean inverse) {
+		double[] xr = re, xi = im, yr = wre, yi = wim, t;
+		double sign = inverse ? 1.0 : -1.0;
+		int s, ns, r, i;
+		double scale;
+
+		ns = 1;
+		for (s = 0; s < factors.length; s++) {
+			r = factors[s];
+			pass(xr, xi, yr, yi, ns, r, sign);
+			ns *= r;
+			t = xr;
+			xr = yr;
+			yr = t;
+			t = xi;
+			xi = yi;
+			yi = t;
+		}
+		if (xr != re) {
+			System.arraycopy(xr, 0, re, 0, n);
+			System.arraycopy(xi, 0, im, 0, n);
+		}
+		if (inverse) {
+			scale = 1.0 / n;
+			for (i = 0; i < n; i++) {
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+
+	/**
+	 * Pass.
+	 *
+	 * @param xr
+	 *            the real part of the input
+	 * @param xi
+	 *            the imaginary part of the input
+	 * @param yr
+	 *            the real part of the output
+	 * @param yi
+	 *            the imaginary part of the output
+	 * @param ns
+	 *            the product of the radices of the previous stages
+	 * @param r
+	 *            the radix
+	 * @param sign
+	 *            the sign of the exponent
+	 */
+	/*
+	 * One stage of the Stockham algorithm: the n/r butterflies of radix r each
+	 * combine the elements j+q*n/r (q in [0,r)) after multiplying them by the
+	 * twiddle factors of the butterfly, and store the results in sorted order.
+	 */
+	private void pass(double[] xr, double[] xi, double[] yr, double[] yi, int ns, int r, double sign) {
+		int m = n / r, step = n / (ns * r);
+		int j, k, q, tw, out;
+		double ar0, ai0, ar1, ai1, ar2, ai2, ar3, ai3, wr, wi, tr, ti;
+		double[] vr = new double[r], vi = new double[r];
+
+		for (j = 0; j < m; j++) {
+			k = j % ns;
+			out = (j - k) * r + k;
+			for (q = 0; q < r; q++) {
+				tr = xr[j + q * m];
+				ti = xi[j + q * m];
+				if (k != 0 && q != 0) {
+					tw = k * q * step;
+					wr = cos[tw];
+					wi = sign * sin[tw];
+					vr[q] = tr * wr - ti * wi;
+					vi[q] = tr * wi + ti * wr;
+				} else {
+					vr[q] = tr;
+					vi[q] = ti;
+				}
+			}
+			switch (r) {
+			case 2:
+				yr[out] = vr[0] + vr[1];
+				yi[out] = vi[0] + vi[1];
+				yr[out + ns] = vr[0] - vr[1];
+				yi[out + ns] = vi[0] - vi[1];
+				break;
+			case 4:
+				ar0 = vr[0] + vr[2];
+				ai0 = vi[0] + vi[2];
+				ar1 = vr[0] - vr[2];
+				ai1 = vi[0] - vi[2];
+				ar2 = vr[1] + vr[3];
+				ai2 = vi[1] + vi[3];
+				/* (v1 - v3) * sign*i */
+				ar3 = -sign * (vi[1] - vi[3]);
+				ai3 = sign * (vr[1] - vr[3]);
+				yr[out] = ar0 + ar2;
+				yi[out] = ai0 + ai2;
+				yr[out + ns] = ar1 + ar3;
+				yi[out + ns] = ai1 + ai3;
+				yr[out + 2 * ns] = ar0 - ar2;
+				yi[out + 2 * ns] = ai0 - ai2;
+				yr[out + 3 * ns] = ar1 - ar3;
+				yi[out + 3 * ns] = ai1 - ai3;
+				break;
+			case 3:
+				ar1 = vr[1] + vr[2];
+				ai1 = vi[1] + vi[2];
+				ar2 = vr[0] - 0.5 * ar1;
+				ai2 = vi[0] - 0.5 * ai1;
+				ar3 = sign * SIN_3 * (vr[1] - vr[2]);
+				ai3 = sign * SIN_3 * (vi[1] - vi[2]);
+				yr[out] = vr[0] + ar1;
+				yi[out] = vi[0] + ai1;
+				yr[out + ns] = ar2 - ai3;
+				yi[out + ns] = ai2 + ar3;
+				yr[out + 2 * ns] = ar2 + ai3;
+				yi[out + 2 * ns] = ai2 - ar3;
+				break;
+			default:
+				/* r == 5 */
+				ar0 = vr[1] + vr[4];
+				ai0 = vi[1] + vi[4];
+				ar1 = vr[2] + vr[3];
+				ai1 = vi[2] + vi[3];
+				ar2 = vr[1] - vr[4];
+				ai2 = vi[1] - vi[4];
+				ar3 = vr[2] - vr[3];
+				ai3 = vi[2] - vi[3];
+				yr[out] = vr[0] + ar0 + ar1;
+				yi[out] = vi[0] + ai0 + ai1;
+				tr = vr[0] + COS_5_1 * ar0 + COS_5_2 * ar1;
+				ti = vi[0] + COS_5_1 * ai0 + COS_5_2 * ai1;
+				wr = sign * (SIN_5_1 * ar2 + SIN_5_2 * ar3);
+				wi = sign * (SIN_5_1 * ai2 + SIN_5_2 * ai3);
+				yr[out + ns] = tr - wi;
+				yi[out + ns] = ti + wr;
+				yr[out + 4 * ns] = tr + wi;
+				yi[out + 4 * ns] = ti - wr;
+				tr = vr[0] + COS_5_2 * ar0 + COS_5_1 * ar1;
+				ti = vi[0] + COS_5_2 * ai0 + COS_5_1 * ai1;
+				wr = sign * (SIN_5_2 * ar2 - SIN_5_1 * ar3);
+				wi = sign * (SIN_5_2 * ai2 - SIN_5_1 * ai3);
+				yr[out + 2 * ns] = tr - wi;
+				yi[out + 2 * ns] = ti + wr;
+				yr[out + 3 * ns] = tr + wi;
+				yi[out + 3 * ns] = ti - wr;
+				break;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,486 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.lang3.mutable.MutableLong;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class FFTGauss.
+ */
+/*
+ * Convolution of an image with the derivatives of the Gaussian in the
+ * frequency domain. The image is mirrored at its borders (as in Convol) into
+ * a padded image whose size is a product of powers of 2, 3 and 5, and which is
+ * large enough that the cyclic convolution of the FFT does not wrap around
+ * into the image. The padded image is transformed once. Since the masks are
+ * separable, the spectrum of each of the five derivatives is the product of
+ * the spectra of its row mask and its column mask, which are computed once
+ * per sigma and size and kept in a cache for the following frames. Because
+ * the five derivatives are real, two of them are computed by one complex
+ * inverse transform (the first one in the real part, the second one in the
+ * imaginary part), so five derivatives take three inverse transforms. The
+ * masks are the same as in Convol; the results only differ by rounding errors.
+ *
+ * The cost per pixel grows with log(width*height) instead of sigma, so this
+ * pays off for large sigma (see LineDetector for the cost model).
+ */
+public class FFTGauss implements DerivativeFilter {
+
+	/** The Constant STRIP_SIZE. */
+	/* Number of columns that are transformed together in the column pass */
+	private static final int STRIP_SIZE = 16;
+
+	/** The Constant CACHE_SIZE. */
+	/* Number of kernel spectra that are kept for the following frames */
+	private static final int CACHE_SIZE = 8;
+
+	/** The Constant ROW_MASK. */
+	/* Derivative of the mask in the row direction for DERIV_R..DERIV_CC */
+	private static final int[] ROW_MASK = { 1, 0, 2, 1, 0 };
+
+	/** The Constant COL_MASK. */
+	/* Derivative of the mask in the column direction for DERIV_R..DERIV_CC */
+	private static final int[] COL_MASK = { 0, 1, 0, 1, 2 };
+
+	/** The Constant BUTTERFLY_COST. */
+	/*
+	 * Time of one element of a transform per log2 of its length, relative to
+	 * one multiply-add of Convol (measured for sizes from 512 to 2048).
+	 */
+	private static final double BUTTERFLY_COST = 4.0;
+
+	/** The cached spectra. */
+	private static final Map<String, Spectra> cache = new LinkedHashMap<String, Spectra>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Spectra> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/** The pool used to transform bands of rows and columns in parallel. */
+	private ForkJoinPool pool;
+
+	/**
+	 * The spectra of the 0th, 1st and 2nd derivative mask for one sigma and one
+	 * padded length.
+	 */
+	private static class Spectra {
+
+		/** The fft of the padded length. */
+		FFT fft;
+
+		/** The real parts. */
+		double[][] re = new double[3][];
+
+		/** The imaginary parts. */
+		double[][] im = new double[3][];
+	}
+
+	/**
+	 * Instantiates a new FFT gauss which transforms on the calling thread.
+	 */
+	public FFTGauss() {
+		this(null);
+	}
+
+	/**
+	 * Instantiates a new FFT gauss.
+	 *
+	 * @param pool
+	 *            the pool used to transform bands of rows and columns in
+	 *            parallel, or null to transform on the calling thread
+	 */
+	public FFTGauss(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Gets the pool.
+	 *
+	 * @return the pool used to transform bands of rows and columns in parallel,
+	 *         or null
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Sets the pool.
+	 *
+	 * @param pool
+	 *            the pool used to transform bands of rows and columns in
+	 *            parallel, or null to transform on the calling thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Padded size.
+	 *
+	 * @param size
+	 *            the width or height of the image
+	 * @param sigma
+	 *            the sigma
+	 * @return the width or height of the padded image
+	 */
+	public static int padded_size(int size, double sigma) {
+		/* The mask of the 2nd derivative is the largest one */
+		return FFT.good_size(size + 2 * LinesUtil.MASK_SIZE(LinesUtil.MAX_SIZE_MASK_2, sigma));
+	}
+
+	/**
+	 * Cost.
+	 *
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param sigma
+	 *            the sigma
+	 * @return the estimated cost of convolve_derivatives in multiply-adds of
+	 *         Convol
+	 */
+	/*
+	 * The forward transform transforms all rows and columns of the padded
+	 * image; each of the three inverse transforms transforms all columns and
+	 * the rows of the image.
+	 */
+	public static double cost(int width, int height, double sigma) {
+		double wp, hp, lw, lh;
+
+		wp = padded_size(width, sigma);
+		hp = padded_size(height, sigma);
+		lw = Math.log(wp) / Math.log(2);
+		lh = Math.log(hp) / Math.log(2);
+		return BUTTERFLY_COST * ((hp + 3 * height) * wp * lw + 4 * wp * hp * lh);
+	}
+
+	/**
+	 * Gets the spectra.
+	 *
+	 * @param sigma
+	 *            the sigma
+	 * @param n
+	 *            the padded length
+	 * @return the spectra
+	 */
+	private static synchronized Spectra get_spectra(double sigma, int n) {
+		String key = sigma + ":" + n;
+		Spectra spectra = cache.get(key);
+		MutableLong num = new MutableLong();
+		Convol convol = new Convol();
+		double[] mask, wre, wim;
+		int deriv, m, t;
+
+		if (spectra != null)
+			return spectra;
+		spectra = new Spectra();
+		spectra.fft = new FFT(n);
+		wre = new double[n];
+		wim = new double[n];
+		for (deriv = 0; deriv < 3; deriv++) {
+			if (deriv == 0)
+				mask = convol.compute_gauss_mask_0(num, sigma);
+			else if (deriv == 1)
+				mask = convol.compute_gauss_mask_1(num, sigma);
+			else
+				mask = convol.compute_gauss_mask_2(num, sigma);
+			m = num.intValue();
+			spectra.re[deriv] = new double[n];
+			spectra.im[deriv] = new double[n];
+			/*
+			 * The masks are correlated with the image, i.e., k[x] = sum_t
+			 * mask[m+t]*image[x+t], which is a convolution with mask[m-t].
+			 */
+			for (t = -m; t <= m; t++)
+				spectra.re[deriv][(t + n) % n] += mask[m - t];
+			spectra.fft.transform(spectra.re[deriv], spectra.im[deriv], wre, wim, false);
+		}
+		cache.put(key, spectra);
+		return spectra;
+	}
+
+	/**
+	 * Pad map.
+	 *
+	 * @param size
+	 *            the width or height of the image
+	 * @param n
+	 *            the width or height of the padded image
+	 * @return the coordinate in the image for every coordinate in the padded
+	 *         image
+	 */
+	/*
+	 * The image occupies [0,size) of the padded image. The pixels after it are
+	 * mirrored at its end, the pixels before the end of the padded image are
+	 * mirrored at its start, since the FFT continues the padded image
+	 * cyclically.
+	 */
+	private static int[] pad_map(int size, int n) {
+		int[] map = new int[n];
+		int p, half;
+
+		half = size + (n - size) / 2;
+		for (p = 0; p < n; p++)
+			map[p] = LinesUtil.MIRROR(p < half ? p : p - n, size);
+		return map;
+	}
+
+	/**
+	 * Transform cols.
+	 *
+	 * @param re
+	 *            the real parts of the padded image
+	 * @param im
+	 *            the imaginary parts of the padded image
+	 * @param wp
+	 *            the width of the padded image
+	 * @param fft
+	 *            the fft of the height of the padded image
+	 * @param c0
+	 *            the first column of the strip
+	 * @param s
+	 *            the number of columns of the strip
+	 * @param bre
+	 *            STRIP_SIZE buffers of the padded height
+	 * @param bim
+	 *            STRIP_SIZE buffers of the padded height
+	 * @param wre
+	 *            a work array of the padded height
+	 * @param wim
+	 *            a work array of the padded height
+	 */
+	private static void transform_cols(float[] re, float[] im, int wp, FFT fft, int c0, int s, double[][] bre,
+			double[][] bim, double[] wre, double[] wim) {
+		int hp = fft.getLength();
+		int r, l, off;
+
+		for (r = 0; r < hp; r++) {
+			off = LinesUtil.LINCOOR(r, c0, wp);
+			for (l = 0; l < s; l++) {
+				bre[l][r] = re[off + l];
+				bim[l][r] = im[off + l];
+			}
+		}
+		for (l = 0; l < s; l++)
+			fft.transform(bre[l], bim[l], wre, wim, false);
+		for (r = 0; r < hp; r++) {
+			off = LinesUtil.LINCOOR(r, c0, wp);
+			for (l = 0; l < s; l++) {
+				re[off + l] = (float) bre[l][r];
+				im[off + l] = (float) bim[l][r];
+			}
+		}
+	}
+
+	/**
+	 * Inverse transform cols.
+	 *
+	 * @param fre
+	 *            the real parts of the spectrum of the padded image
+	 * @param fim
+	 *            the imaginary parts of the spectrum of the padded image
+	 * @param gre
+	 *            the real parts of the result (height rows)
+	 * @param gim
+	 *            the imaginary parts of the result (height rows)
+	 * @param wp
+	 *            the width of the padded image
+	 * @param height
+	 *            the height of the image
+	 * @param sr
+	 *            the spectra of the masks in the row direction
+	 * @param sc
+	 *            the spectra of the masks in the column direction
+	 * @param a
+	 *            the derivative in the real part of the result
+	 * @param b
+	 *            the derivative in the imaginary part of the result, or -1
+	 * @param c0
+	 *            the first column of the strip
+	 * @param s
+	 *            the number of columns of the strip
+	 * @param bre
+	 *            STRIP_SIZE buffers of the padded height
+	 * @param bim
+	 *            STRIP_SIZE buffers of the padded height
+	 * @param wre
+	 *            a work array of the padded height
+	 * @param wim
+	 *            a work array of the padded height
+	 */
+	/*
+	 * Multiply the spectrum of the image by Ka+i*Kb, where Ka and Kb are the
+	 * spectra of the derivatives a and b, and transform the columns back.
+	 */
+	private static void inverse_transform_cols(float[] fre, float[] fim, float[] gre, float[] gim, int wp,
+			int height, Spectra sr, Spectra sc, int a, int b, int c0, int s, double[][] bre, double[][] bim,
+			double[] wre, double[] wim) {
+		int hp = sr.fft.getLength();
+		double[] rar = sr.re[ROW_MASK[a]], rai = sr.im[ROW_MASK[a]];
+		double[] car = sc.re[COL_MASK[a]], cai = sc.im[COL_MASK[a]];
+		double[] rbr = null, rbi = null, cbr = null, cbi = null;
+		double kar, kai, kbr, kbi, kr, ki, xr, xi;
+		int r, l, c, off;
+
+		if (b >= 0) {
+			rbr = sr.re[ROW_MASK[b]];
+			rbi = sr.im[ROW_MASK[b]];
+			cbr = sc.re[COL_MASK[b]];
+			cbi = sc.im[COL_MASK[b]];
+		}
+		for (r = 0; r < hp; r++) {
+			off = LinesUtil.LINCOOR(r, c0, wp);
+			for (l = 0; l < s; l++) {
+				c = c0 + l;
+				kar = rar[r] * car[c] - rai[r] * cai[c];
+				kai = rar[r] * cai[c] + rai[r] * car[c];
+				if (b >= 0) {
+					kbr = rbr[r] * cbr[c] - rbi[r] * cbi[c];
+					kbi = rbr[r] * cbi[c] + rbi[r] * cbr[c];
+				} else {
+					kbr = 0.0;
+					kbi = 0.0;
+				}
+				/* Ka + i*Kb */
+				kr = kar - kbi;
+				ki = kai + kbr;
+				xr = fre[off + l];
+				xi = fim[off + l];
+				bre[l][r] = xr * kr - xi * ki;
+				bim[l][r] = xr * ki + xi * kr;
+			}
+		}
+		for (l = 0; l < s; l++)
+			sr.fft.transform(bre[l], bim[l], wre, wim, true);
+		for (r = 0; r < height; r++) {
+			off = LinesUtil.LINCOOR(r, c0, wp);
+			for (l = 0; l < s; l++) {
+				gre[off + l] = (float) bre[l][r];
+				gim[off + l] = (float) bim[l][r];
+			}
+		}
+	}
+
+	/*
+	 * Compute the five derivatives with one forward and three inverse
+	 * transforms: DERIV_R and DERIV_C, DERIV_RR and DERIV_RC, and DERIV_CC.
+	 */
+	@Override
+	public void convolve_derivatives(final float[] image, final float[][] k, final int width, final int height,
+			double sigma) {
+		final Spectra sr = get_spectra(sigma, padded_size(height, sigma));
+		final Spectra sc = get_spectra(sigma, padded_size(width, sigma));
+		final int hp = sr.fft.getLength();
+		final int wp = sc.fft.getLength();
+		final int[] rmap = pad_map(height, hp);
+		final int[] cmap = pad_map(width, wp);
+		final int strips = (wp + STRIP_SIZE - 1) / STRIP_SIZE;
+		final float[] fre = new float[LinesUtil.IMAGE_SIZE(wp, hp)];
+		final float[] fim = new float[LinesUtil.IMAGE_SIZE(wp, hp)];
+		final float[] gre = new float[LinesUtil.IMAGE_SIZE(wp, height)];
+		final float[] gim = new float[LinesUtil.IMAGE_SIZE(wp, height)];
+		final int[][] pairs = { { 0, 1 }, { 2, 3 }, { 4, -1 } };
+
+		/* Forward transform of the rows of the padded image */
+		BandExecutor.execute(pool, 0, hp, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				double[] re = new double[wp], im = new double[wp];
+				double[] wre = new double[wp], wim = new double[wp];
+				for (int r = from; r < to; r++) {
+					int off = LinesUtil.LINCOOR(rmap[r], 0, width);
+					for (int c = 0; c < wp; c++) {
+						re[c] = image[off + cmap[c]];
+						im[c] = 0.0;
+					}
+					sc.fft.transform(re, im, wre, wim, false);
+					for (int c = 0; c < wp; c++) {
+						fre[LinesUtil.LINCOOR(r, c, wp)] = (float) re[c];
+						fim[LinesUtil.LINCOOR(r, c, wp)] = (float) im[c];
+					}
+				}
+			}
+		});
+
+		/* Forward transform of the columns */
+		BandExecutor.execute(pool, 0, strips, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				double[][] bre = new double[STRIP_SIZE][hp], bim = new double[STRIP_SIZE][hp];
+				double[] wre = new double[hp], wim = new double[hp];
+				for (int i = from; i < to; i++) {
+					int c0 = i * STRIP_SIZE;
+					transform_cols(fre, fim, wp, sr.fft, c0, Math.min(STRIP_SIZE, wp - c0), bre, bim, wre, wim);
+				}
+			}
+		});
+
+		for (final int[] pair : pairs) {
+			/* Multiply by the spectra and transform the columns back */
+			BandExecutor.execute(pool, 0, strips, new BandExecutor.Band() {
+				@Override
+				public void process(int from, int to) {
+					double[][] bre = new double[STRIP_SIZE][hp], bim = new double[STRIP_SIZE][hp];
+					double[] wre = new double[hp], wim = new double[hp];
+					for (int i = from; i < to; i++) {
+						int c0 = i * STRIP_SIZE;
+						inverse_transform_cols(fre, fim, gre, gim, wp, height, sr, sc, pair[0], pair[1], c0,
+								Math.min(STRIP_SIZE, wp - c0), bre, bim, wre, wim);
+					}
+				}
+			});
+
+			/* Transform the rows of the image back */
+			BandExecutor.execute(pool, 0, height, new BandExecutor.Band() {
+				@Override
+				public void process(int from, int to) {
+					double[] re = new double[wp], im = new double[wp];
+					double[] wre = new double[wp], wim = new double[wp];
+					float[] ka = k[pair[0]];
+					float[] kb = pair[1] >= 0 ? k[pair[1]] : null;
+					for (int r = from; r < to; r++) {
+						for (int c = 0; c < wp; c++) {
+							re[c] = gre[LinesUtil.LINCOOR(r, c, wp)];
+							im[c] = gim[LinesUtil.LINCOOR(r, c, wp)];
+						}
+						sc.fft.transform(re, im, wre, wim, true);
+						for (int c = 0; c < width; c++) {
+							ka[LinesUtil.LINCOOR(r, c, width)] = (float) re[c];
+							if (kb != null)
+								kb[LinesUtil.LINCOOR(r, c, width)] = (float) im[c];
+						}
+					}
+				}
+			});
+		}
+	}
+
+}
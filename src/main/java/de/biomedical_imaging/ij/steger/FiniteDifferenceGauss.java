@@ -0,0 +1,188 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.concurrent.ForkJoinPool;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class FiniteDifferenceGauss.
+ */
+/*
+ * Approximation of the derivatives of the Gaussian by a single Gaussian
+ * smoothing (the mask of compute_gauss_mask_0 of Convol, cut off at
+ * MAX_SIZE_MASK_2 like the masks of the 2nd derivative) followed by central
+ * finite differences on the smoothed image:
+ *
+ * r = (f(r+1,c)-f(r-1,c))/2, rr = f(r+1,c)-2*f(r,c)+f(r-1,c),
+ * rc = (f(r+1,c+1)-f(r+1,c-1)-f(r-1,c+1)+f(r-1,c-1))/4,
+ *
+ * and likewise for c and cc. Only one mask is applied to the rows and the
+ * columns instead of the three row masks and five column masks of Convol, and
+ * the smoothing mask is the smallest one. The second difference [1,-2,1]
+ * smooths like a box of width 1 (variance 1/12), so the image is smoothed
+ * with sqrt(sigma^2-1/12) to give the second derivatives along the rows and
+ * columns the same scale as the masks of Convol. The first differences and
+ * the mixed difference smooth more (variance 1/3 in each differentiated
+ * direction), so they are slightly too small for thin lines.
+ *
+ * On synthetic bars (contrast 100, noise sigma 2) of width 2, 3, 5, and 8 with
+ * sigma = width/(2*sqrt(3))+0.2, the largest difference to the derivatives of
+ * Convol is 25%, 16%, 7%, and 3% of the maximum of the mixed derivative and at
+ * most 15%, 11%, 4%, and 2% for the others. The detected lines are the same, the
+ * positions are as accurate (0.01-0.02 pixels from the true center), and the
+ * width is off by 0.85, 0.39, 0.17, and 0.11 pixels instead of 0.60, 0.27,
+ * 0.12, and 0.09 pixels. The derivatives are computed about three times
+ * faster. For sigma < 1.5 the exact masks should be preferred.
+ *
+ * The differences amplify the step at the end of the smoothing mask, which
+ * grows relative to the derivatives with sigma. With the shorter cut-off of
+ * MAX_SIZE_MASK_0, the error of rr on bars with noise sigma 20 grew from 4% at
+ * sigma 3 to 26% at sigma 5 and 47% at sigma 6. With the longer mask, the
+ * largest difference to Convol on such bars (noise sigma 2 and 20) is at most
+ * 3% for sigma 3 to 5 and 4% for sigma 6, for all five derivatives.
+ */
+public class FiniteDifferenceGauss implements DerivativeFilter {
+
+	/** The Constant DIFF_VARIANCE. */
+	/* Variance of the smoothing of the second difference [1,-2,1] */
+	private static final double DIFF_VARIANCE = 1.0 / 12.0;
+
+	/** The pool used to process bands of rows in parallel. */
+	private ForkJoinPool pool;
+
+	/** The context that caches the masks and the scratch buffers. */
+	private ConvolutionContext context;
+
+	/**
+	 * Instantiates a new finite difference gauss which filters on the calling
+	 * thread.
+	 */
+	public FiniteDifferenceGauss() {
+		this(null);
+	}
+
+	/**
+	 * Instantiates a new finite difference gauss.
+	 *
+	 * @param pool
+	 *            the pool used to process bands of rows in parallel, or null to
+	 *            filter on the calling thread
+	 */
+	public FiniteDifferenceGauss(ForkJoinPool pool) {
+		this(pool, new ConvolutionContext());
+	}
+
+	/**
+	 * Instantiates a new finite difference gauss.
+	 *
+	 * @param pool
+	 *            the pool used to process bands of rows in parallel, or null to
+	 *            filter on the calling thread
+	 * @param context
+	 *            the context that caches the masks and the scratch buffers
+	 */
+	public FiniteDifferenceGauss(ForkJoinPool pool, ConvolutionContext context) {
+		this.pool = pool;
+		this.context = context;
+	}
+
+	/**
+	 * Smoothing sigma.
+	 *
+	 * @param sigma
+	 *            the sigma of the derivatives
+	 * @return the sigma of the Gaussian smoothing before the differences
+	 */
+	public static double smoothing_sigma(double sigma) {
+		return Math.sqrt(Math.max(sigma * sigma - DIFF_VARIANCE, 0));
+	}
+
+	/**
+	 * Convolve derivatives.
+	 *
+	 * @param image
+	 *            the image
+	 * @param k
+	 *            the five derivative images in the order DERIV_R, DERIV_C,
+	 *            DERIV_RR, DERIV_RC, DERIV_CC
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param sigma
+	 *            the sigma
+	 */
+	/*
+	 * The smoothed image is written to k[4] first, and then copied into an image
+	 * that is padded by one pixel, so the differences need no mirroring at the
+	 * border.
+	 */
+	@Override
+	public void convolve_derivatives(float[] image, final float[][] k, final int width, int height, double sigma) {
+		Convol convol = new Convol(pool, context);
+		final PaddedImage smooth = new PaddedImage(context, width, height, 1);
+
+		convol.convolve_gauss(image, k[4], width, height, smoothing_sigma(sigma), LinesUtil.DERIV_0_WIDE);
+		smooth.set_image(k[4]);
+		BandExecutor.execute(pool, 0, height, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				for (int r = from; r < to; r++)
+					differences(smooth, k, width, r);
+			}
+		});
+		smooth.release(context);
+	}
+
+	/**
+	 * Differences.
+	 *
+	 * @param smooth
+	 *            the smoothed image, padded by at least 1
+	 * @param k
+	 *            the five derivative images
+	 * @param width
+	 *            the width
+	 * @param r
+	 *            the row to compute
+	 */
+	private void differences(PaddedImage smooth, float[][] k, int width, int r) {
+		float[] f = smooth.getData();
+		float[] kr = k[0], kc = k[1], krr = k[2], krc = k[3], kcc = k[4];
+		int s = smooth.getStride();
+		int c, l, o;
+		float x;
+
+		o = smooth.index(r, 0);
+		l = LinesUtil.LINCOOR(r, 0, width);
+		for (c = 0; c < width; c++) {
+			x = f[o + c];
+			kr[l + c] = 0.5f * (f[o + c + s] - f[o + c - s]);
+			kc[l + c] = 0.5f * (f[o + c + 1] - f[o + c - 1]);
+			krr[l + c] = f[o + c + s] - 2.0f * x + f[o + c - s];
+			krc[l + c] = 0.25f * (f[o + c + s + 1] - f[o + c + s - 1] - f[o + c - s + 1] + f[o + c - s - 1]);
+			kcc[l + c] = f[o + c + 1] - 2.0f * x + f[o + c - 1];
+		}
+	}
+
+}
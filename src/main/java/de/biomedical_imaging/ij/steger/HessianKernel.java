@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class HessianKernel.
+ */
+/*
+ * Batched form of Position.compute_eigenvals and Position.solve_linear. The
+ * partial derivatives of a run of points are passed as one array per
+ * derivative (structure of arrays), and the eigenvalue, the normal, and the
+ * sub-pixel offset of every point are written to one array per quantity. All
+ * intermediate values are locals of a single loop, so there are no
+ * allocations, no out-parameters, and no calls per point, and the JIT compiler
+ * can keep the state of a point in registers. The arithmetic is the same as
+ * that of compute_eigenvals and solve_linear, so the results are identical.
+ */
+public class HessianKernel {
+
+	/** The Constant REJECT_MARGIN. */
+	/*
+	 * Relative margin of the rejection test. The rounding errors of the
+	 * eigenvalues are a few ulps of |drr|+|drc|+|dcc|, far below this margin.
+	 */
+	private static final double REJECT_MARGIN = 1e-9;
+
+	/**
+	 * Compute the line points of a run of points.
+	 *
+	 * @param dr
+	 *            the first derivatives in row direction
+	 * @param dc
+	 *            the first derivatives in column direction
+	 * @param drr
+	 *            the second derivatives in row direction
+	 * @param drc
+	 *            the mixed second derivatives
+	 * @param dcc
+	 *            the second derivatives in column direction
+	 * @param count
+	 *            the number of points
+	 * @param mode
+	 *            MODE_LIGHT or MODE_DARK
+	 * @param low
+	 *            the smallest val of interest; points that provably have a
+	 *            smaller val are rejected, use 0 to reject only the points with
+	 *            val &lt; 0
+	 * @param val
+	 *            the eigenvalue of largest absolute value, negated for
+	 *            MODE_LIGHT, or NaN if the point was rejected
+	 * @param n1
+	 *            the row component of the normal (the eigenvector of val)
+	 * @param n2
+	 *            the column component of the normal
+	 * @param p1
+	 *            the row offset of the extremum along the normal, or NaN if val
+	 *            &lt;= 0 or there is no extremum
+	 * @param p2
+	 *            the column offset of the extremum along the normal, or NaN
+	 * @return the number of rejected points
+	 */
+	/*
+	 * Of the two eigenvalues the one with the larger absolute value is selected,
+	 * and the negative one if both are of equal absolute value, like in
+	 * compute_eigenvals. Its eigenvector is (c,-s) for e1 and (s,c) for e2.
+	 *
+	 * Before the eigenvalues are computed, a point is rejected if val < low
+	 * follows from the trace T and R = sqrt(((drr-dcc)/2)^2+drc^2) alone. The
+	 * eigenvalues are T/2 +- R, and the one of larger absolute value has the sign
+	 * of T, so val = |T|/2 + R if sign*T > 0 and val = -|T|/2 - R otherwise.
+	 * Hence val < 0 if sign*T < 0, and |val| <= |T|/2 + R < low if R^2 <
+	 * (low - |T|/2)^2 and low > |T|/2. No square root or division is needed.
+	 */
+	public static int line_points(double[] dr, double[] dc, double[] drr, double[] drc, double[] dcc, int count,
+			int mode, double low, double[] val, double[] n1, double[] n2, double[] p1, double[] p2) {
+		double sign = (mode == LinesUtil.MODE_LIGHT) ? -1.0 : 1.0;
+		double rr, rc, cc, theta, t, c, s, e1, e2, e, u1, u2, a, b, v, tr, m, h, d;
+		int i, rejected = 0;
+
+		for (i = 0; i < count; i++) {
+			rr = drr[i];
+			rc = drc[i];
+			cc = dcc[i];
+			tr = sign * (rr + cc);
+			m = REJECT_MARGIN * (Math.abs(rr) + Math.abs(cc) + Math.abs(rc));
+			h = low - 0.5 * Math.abs(tr) - m;
+			d = 0.5 * (rr - cc);
+			if (tr < -m || (h > 0.0 && d * d + rc * rc < h * h)) {
+				val[i] = Double.NaN;
+				p1[i] = Double.NaN;
+				p2[i] = Double.NaN;
+				rejected++;
+				continue;
+			}
+			if (rc != 0.0) {
+				theta = 0.5 * (cc - rr) / rc;
+				t = 1.0 / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+				if (theta < 0.0)
+					t = -t;
+				c = 1.0 / Math.sqrt(t * t + 1.0);
+				s = t * c;
+				e1 = rr - t * rc;
+				e2 = cc + t * rc;
+			} else {
+				c = 1.0;
+				s = 0.0;
+				e1 = rr;
+				e2 = cc;
+			}
+			if (Math.abs(e1) > Math.abs(e2) || (Math.abs(e1) == Math.abs(e2) && e1 < e2)) {
+				e = e1;
+				u1 = c;
+				u2 = -s;
+			} else {
+				e = e2;
+				u1 = s;
+				u2 = c;
+			}
+			v = sign * e;
+			val[i] = v;
+			n1[i] = u1;
+			n2[i] = u2;
+			p1[i] = Double.NaN;
+			p2[i] = Double.NaN;
+			if (v > 0.0) {
+				a = rr * u1 * u1 + 2.0 * rc * u1 * u2 + cc * u2 * u2;
+				b = dr[i] * u1 + dc[i] * u2;
+				if (a != 0.0) {
+					t = -b / a;
+					p1[i] = t * u1;
+					p2[i] = t * u2;
+				}
+			}
+		}
+		return rejected;
+	}
+
+}
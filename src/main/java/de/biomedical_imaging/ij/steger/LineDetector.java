@@ -23,14 +23,18 @@ package de.biomedical_imaging.ij.steger;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.lang3.mutable.MutableInt;
 
 import ij.IJ;
+import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
@@ -61,12 +65,42 @@ public class LineDetector {
 	/** The lines. */
 	private Lines lines;
 
+	/** The junctions of every sigma of the last multi-scale detection. */
+	private ArrayList<Junctions> scaleJunctions;
+
+	/** The rejection rate of the last detection. */
+	private double rejectionRate = 0;
+
 	/** The already processed junction points. */
 	Set<Integer> alreadyProcessedJunctionPoints;
 
 	/** The bechatty. */
 	boolean bechatty = false;
 
+	/** The pool used for the parallel parts of the detection. */
+	private ForkJoinPool pool = BandExecutor.getDefaultPool();
+
+	/** Look up the default pool at the start of every detection. */
+	private boolean defaultPool = true;
+
+	/** Accumulate the convolutions in float instead of double. */
+	private boolean floatAccumulation = false;
+
+	/** The filter used to compute the partial derivatives. */
+	private DerivativeOption derivativeOption = DerivativeOption.AUTO;
+
+	/** The context that caches the masks and the scratch buffers. */
+	private ConvolutionContext context = new ConvolutionContext();
+
+	/** Detect lines with a large sigma on a downsampled image. */
+	private boolean pyramid = false;
+
+	/** Refine the positions of the pyramid mode at full resolution. */
+	private boolean pyramidRefinement = true;
+
+	/** Compute the derivatives in strips of rows to bound the memory. */
+	private boolean streaming = false;
+
 	/**
 	 * Detect lines.
 	 *
@@ -137,12 +171,133 @@ public class LineDetector {
 		this.doCorrectPosition = doCorrectPosition;
 		this.doEstimateWidth = doEstimateWidth;
 		this.doExtendLine = doExtendLine;
+		if (defaultPool)
+			pool = BandExecutor.getDefaultPool();
+		context.set_image_size(ip.getWidth(), ip.getHeight());
 		junctions = new Junctions(ip.getSliceNumber());
 		lines = get_lines(sigma, upperThresh, lowerThresh, minLength, maxLength, ip.getHeight(), ip.getWidth(), ip,
-				junctions, overlapOption);
+				junctions, overlapOption, null);
 		return lines;
 	}
 
+	/**
+	 * Detect lines at several sigmas, e.g. to find lines of different widths.
+	 * With the derivative option AUTO or FIR, the derivatives are taken from a
+	 * {@link ScaleSpace}, so each sigma is computed from the previous one
+	 * instead of from the raw pixels. Otherwise, every sigma is an independent
+	 * run with the selected filter. In the streaming mode every sigma is an
+	 * independent run as well, since the scale space keeps the derivatives of
+	 * the whole image. In the pyramid mode, a sigma that is detected on a
+	 * reduced image (see {@link Pyramid#level(double, int, int)}) is an
+	 * independent run in the pyramid, and only the smaller sigmas are taken
+	 * from the scale space. The junctions of every sigma are available via
+	 * getScaleJunctions.
+	 *
+	 * @param ip
+	 *            the ip
+	 * @param sigmas
+	 *            the sigmas, in any order
+	 * @param upperThresh
+	 *            the upper thresh
+	 * @param lowerThresh
+	 *            the lower thresh
+	 * @param minLength
+	 *            the min length
+	 * @param maxLength
+	 *            the max length
+	 * @param isDarkLine
+	 *            the is dark line
+	 * @param doCorrectPosition
+	 *            the do correct position
+	 * @param doEstimateWidth
+	 *            the do estimate width
+	 * @param doExtendLine
+	 *            the do extend line
+	 * @param overlapOption
+	 *            the overlap option
+	 * @return the lines of every sigma, in the order of sigmas
+	 */
+	public ArrayList<Lines> detectLines(ImageProcessor ip, double[] sigmas, double upperThresh, double lowerThresh,
+			double minLength, double maxLength, boolean isDarkLine, boolean doCorrectPosition,
+			boolean doEstimateWidth, boolean doExtendLine, OverlapOption overlapOption) {
+		int width = ip.getWidth(), height = ip.getHeight();
+		Lines[] result = new Lines[sigmas.length];
+		Junctions[] resultJunctions = new Junctions[sigmas.length];
+		Integer[] order = new Integer[sigmas.length];
+		boolean[] fromSpace = new boolean[sigmas.length];
+		boolean useSpace = false;
+		ScaleSpace space = null;
+		float[][] k = null;
+		int i;
+
+		this.isDarkLine = isDarkLine;
+		this.doCorrectPosition = doCorrectPosition;
+		this.doEstimateWidth = doEstimateWidth;
+		this.doExtendLine = doExtendLine;
+		if (defaultPool)
+			pool = BandExecutor.getDefaultPool();
+		context.set_image_size(width, height);
+		for (i = 0; i < sigmas.length; i++) {
+			fromSpace[i] = (derivativeOption == DerivativeOption.AUTO || derivativeOption == DerivativeOption.FIR)
+					&& !streaming && !(pyramid && Pyramid.level(sigmas[i], width, height) > 0);
+			useSpace |= fromSpace[i];
+		}
+		if (useSpace) {
+			Convol convol = new Convol(pool, context);
+			convol.setFloatAccumulation(floatAccumulation);
+			space = new ScaleSpace((float[]) image_pixels(ip).getPixels(), width, height, convol);
+			k = new float[5][];
+			for (i = 0; i < 5; i++)
+				k[i] = context.take_float(LinesUtil.IMAGE_SIZE(width, height));
+		}
+		/* The scale space is built from the smallest to the largest sigma */
+		for (i = 0; i < sigmas.length; i++)
+			order[i] = i;
+		final double[] s = sigmas;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(s[a], s[b]);
+			}
+		});
+		for (int o : order) {
+			junctions = new Junctions(ip.getSliceNumber());
+			if (fromSpace[o])
+				space.derivatives(sigmas[o], k);
+			result[o] = get_lines(sigmas[o], upperThresh, lowerThresh, minLength, maxLength, height, width, ip,
+					junctions, overlapOption, fromSpace[o] ? k : null);
+			resultJunctions[o] = junctions;
+		}
+		if (space != null) {
+			space.release();
+			for (i = 0; i < 5; i++)
+				context.release(k[i]);
+		}
+		scaleJunctions = new ArrayList<Junctions>(Arrays.asList(resultJunctions));
+		return new ArrayList<Lines>(Arrays.asList(result));
+	}
+
+	/**
+	 * Gets the junctions of every sigma of the last multi-scale detection.
+	 *
+	 * @return the junctions, in the order of the sigmas
+	 */
+	public ArrayList<Junctions> getScaleJunctions() {
+		return scaleJunctions;
+	}
+
+	/**
+	 * Gets the rejection rate of the last detection, i.e., the fraction of the
+	 * pixels that were rejected by a bound on the Hessian before their
+	 * eigenvalues were computed, because they could not reach the low
+	 * threshold.
+	 *
+	 * @return the rejection rate between 0 and 1
+	 */
+	public double getRejectionRate() {
+		return rejectionRate;
+	}
+
 	/**
 	 * Assign lines to junctions.
 	 *
@@ -167,6 +322,169 @@ public class LineDetector {
 		return opts;
 	}
 
+	/**
+	 * Gets the thread pool.
+	 *
+	 * @return the pool used for the parallel parts of the detection, or null if
+	 *         the detection runs on the calling thread
+	 */
+	public ForkJoinPool getThreadPool() {
+		return pool;
+	}
+
+	/**
+	 * Sets the thread pool. By default the pool of {@link BandExecutor} is used,
+	 * whose parallelism follows the number of threads set in ImageJ; it is
+	 * looked up at the start of every detection. The result of the detection
+	 * does not depend on the pool.
+	 *
+	 * @param pool
+	 *            the pool used for the parallel parts of the detection, or null
+	 *            to run the detection on the calling thread
+	 */
+	public void setThreadPool(ForkJoinPool pool) {
+		this.pool = pool;
+		this.defaultPool = false;
+	}
+
+	/**
+	 * Checks if the convolutions are accumulated in float.
+	 *
+	 * @return true, if the convolutions are accumulated in float
+	 */
+	public boolean isFloatAccumulation() {
+		return floatAccumulation;
+	}
+
+	/**
+	 * Sets the float accumulation. The float convolution adds the mask taps to
+	 * whole rows in float precision, so its derivatives differ slightly from the
+	 * double precision convolution (see
+	 * {@link Convol#setFloatAccumulation(boolean)} for the error bound).
+	 *
+	 * @param floatAccumulation
+	 *            true to accumulate the convolutions in float
+	 */
+	public void setFloatAccumulation(boolean floatAccumulation) {
+		this.floatAccumulation = floatAccumulation;
+	}
+
+	/**
+	 * Gets the context.
+	 *
+	 * @return the context that caches the masks and the scratch buffers
+	 */
+	public ConvolutionContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Sets the context. Detectors that process the frames of a stack one after
+	 * the other can share a context, so that the masks and the scratch buffers
+	 * are only created for the first frame. The pooled buffers of the context
+	 * are dropped when the image size changes.
+	 *
+	 * @param context
+	 *            the context that caches the masks and the scratch buffers
+	 */
+	public void setContext(ConvolutionContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Gets the derivative option.
+	 *
+	 * @return the filter used to compute the partial derivatives
+	 */
+	public DerivativeOption getDerivativeOption() {
+		return derivativeOption;
+	}
+
+	/**
+	 * Sets the derivative option. {@link DerivativeOption#AUTO} chooses between
+	 * the convolution with the Gaussian masks and the equivalent convolution in
+	 * the frequency domain by their estimated cost for the sigma and the image
+	 * size. {@link DerivativeOption#RECURSIVE} takes the same time for every
+	 * sigma and is much faster than the convolution with the Gaussian masks for
+	 * large sigma, but its responses differ slightly (see
+	 * {@link RecursiveGauss}). {@link DerivativeOption#FIXED_POINT} is only
+	 * used for 8-bit images and falls back to FIR otherwise.
+	 *
+	 * @param derivativeOption
+	 *            the filter used to compute the partial derivatives
+	 */
+	public void setDerivativeOption(DerivativeOption derivativeOption) {
+		this.derivativeOption = derivativeOption;
+	}
+
+	/**
+	 * Checks if the pyramid mode is enabled.
+	 *
+	 * @return true, if lines with a large sigma are detected on a downsampled
+	 *         image
+	 */
+	public boolean isPyramid() {
+		return pyramid;
+	}
+
+	/**
+	 * Sets the pyramid mode. If set, an image is reduced by 2^k for sigma &gt;=
+	 * 2^(k+1) (see {@link Pyramid}), the lines are detected on the reduced image,
+	 * and the results are mapped back to full resolution. Also used by the
+	 * multi-scale detection for the sigmas that are reduced.
+	 *
+	 * @param pyramid
+	 *            true to detect lines with a large sigma on a downsampled image
+	 */
+	public void setPyramid(boolean pyramid) {
+		this.pyramid = pyramid;
+	}
+
+	/**
+	 * Checks if the positions of the pyramid mode are refined.
+	 *
+	 * @return true, if the positions are refined at full resolution
+	 */
+	public boolean isPyramidRefinement() {
+		return pyramidRefinement;
+	}
+
+	/**
+	 * Sets the refinement of the pyramid mode. If set, the position of every line
+	 * point is refined with the derivatives of the full resolution image.
+	 *
+	 * @param pyramidRefinement
+	 *            true to refine the positions at full resolution
+	 */
+	public void setPyramidRefinement(boolean pyramidRefinement) {
+		this.pyramidRefinement = pyramidRefinement;
+	}
+
+	/**
+	 * Checks if the streaming mode is enabled.
+	 *
+	 * @return true, if the derivatives are computed in strips of rows
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sets the streaming mode. If set, the derivatives are computed in strips
+	 * of rows and only the first derivatives of the whole image are kept, which
+	 * lowers the peak memory for large images (see
+	 * {@link Position#setStreaming(boolean)}). The lines are the same. Only
+	 * used with the FIR and the FIXED_POINT filter, and ignored otherwise. The
+	 * multi-scale detection then runs every sigma independently instead of
+	 * keeping a scale space of the whole image.
+	 *
+	 * @param streaming
+	 *            true to compute the derivatives in strips of rows
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
 	/**
 	 * Gets the junctions.
 	 *
@@ -759,11 +1077,13 @@ public class LineDetector {
 	 *            the result junction
 	 * @param overlapOption
 	 *            the overlap option
+	 * @param k
+	 *            the derivatives of in_img at sigma, or null to compute them with
+	 *            the filter selected by the derivative option
 	 * @return the lines
 	 */
 	private Lines get_lines(double sigma, double high, double low, double minLength, double maxLength, int rows,
-			int cols, ImageProcessor in_img, Junctions resultJunction, OverlapOption overlapOption) {
-		FloatProcessor image;
+			int cols, ImageProcessor in_img, Junctions resultJunction, OverlapOption overlapOption, float[][] k) {
 		Lines contours = new Lines(in_img.getSliceNumber());
 		int num_cont = 0;
 		opts = new Options(-1.0, -1.0, -1.0, isDarkLine ? LinesUtil.MODE_DARK : LinesUtil.MODE_LIGHT, -1.0, -1.0,
@@ -788,18 +1108,65 @@ public class LineDetector {
 			break;
 		}
 
-		int i2, j2;
-		// //(float *) malloc(rows*cols*sizeof(float));
-		float[] imgpxls = new float[cols * rows];
-		for (i2 = 0; i2 < rows; i2++)
-			for (j2 = 0; j2 < cols; j2++)
-				imgpxls[i2 * cols + j2] = in_img.getf(j2, i2);
-		image = new FloatProcessor(cols, rows, imgpxls);
 		MutableInt hnum_cont = new MutableInt(num_cont);
-		float[] imgpxls2 = (float[]) image.getPixels();
-		Position p = new Position();
-		p.detect_lines(imgpxls2, cols, rows, contours, hnum_cont, opts.sigma, opts.low, opts.high, opts.mode,
-				opts.width, opts.correct, opts.extend, resultJunction);
+		if (k != null) {
+			/* The derivatives of a scale space are computed with the masks of Convol */
+			opts.derivative = DerivativeOption.FIR;
+			Position p = new Position(null, pool, context);
+			p.detect_lines(k, cols, rows, contours, hnum_cont, opts.sigma, opts.low, opts.high, opts.mode, opts.width,
+					opts.correct, opts.extend, resultJunction);
+			rejectionRate = p.getRejectionRate();
+		} else {
+			DerivativeFilter filter;
+			Convol convol = new Convol(pool, context);
+			convol.setFloatAccumulation(floatAccumulation);
+			opts.pyramidLevel = pyramid ? Pyramid.level(sigma, cols, rows) : 0;
+			/* The filter is applied to the reduced image in the pyramid mode */
+			int f = 1 << opts.pyramidLevel;
+			int w = (cols + f - 1) / f, h = (rows + f - 1) / f;
+			double s = Pyramid.small_sigma(sigma, opts.pyramidLevel);
+			opts.derivative = derivativeOption;
+			if (opts.derivative == DerivativeOption.AUTO)
+				opts.derivative = FFTGauss.cost(w, h, s) < convol.cost(w, h, s) ? DerivativeOption.FFT
+						: DerivativeOption.FIR;
+			/* The fixed point path needs the 8-bit pixels at full resolution */
+			if (opts.derivative == DerivativeOption.FIXED_POINT
+					&& (!(in_img instanceof ByteProcessor) || opts.pyramidLevel > 0))
+				opts.derivative = DerivativeOption.FIR;
+			switch (opts.derivative) {
+			default:
+			case FIR:
+				filter = convol;
+				break;
+			case FFT:
+				filter = new FFTGauss(pool);
+				break;
+			case RECURSIVE:
+				filter = new RecursiveGauss(pool);
+				break;
+			case FINITE_DIFFERENCE:
+				filter = new FiniteDifferenceGauss(pool, context);
+				break;
+			case FIXED_POINT:
+				filter = null;
+				break;
+			}
+			Position p = new Position(filter, pool, context);
+			p.setStreaming(streaming);
+			/* The fixed point path reads the 8-bit pixels and needs no float copy */
+			if (opts.derivative == DerivativeOption.FIXED_POINT)
+				p.detect_lines((byte[]) in_img.getPixels(), new FixedPointConvol(pool, context), cols, rows, contours,
+						hnum_cont, opts.sigma, opts.low, opts.high, opts.mode, opts.width, opts.correct, opts.extend,
+						resultJunction);
+			else if (opts.pyramidLevel > 0)
+				new Pyramid(opts.pyramidLevel, pyramidRefinement, context).detect_lines(p,
+						(float[]) image_pixels(in_img).getPixels(), cols, rows, contours, hnum_cont, opts.sigma,
+						opts.low, opts.high, opts.mode, opts.width, opts.correct, opts.extend, resultJunction);
+			else
+				p.detect_lines((float[]) image_pixels(in_img).getPixels(), cols, rows, contours, hnum_cont, opts.sigma,
+						opts.low, opts.high, opts.mode, opts.width, opts.correct, opts.extend, resultJunction);
+			rejectionRate = p.getRejectionRate();
+		}
 		num_cont = hnum_cont.getValue();
 
 		// lines = contours;
@@ -857,6 +1224,24 @@ public class LineDetector {
 
 	}
 
+	/**
+	 * Image pixels.
+	 *
+	 * @param in_img
+	 *            the in img
+	 * @return the image as float processor
+	 */
+	private FloatProcessor image_pixels(ImageProcessor in_img) {
+		int i2, j2;
+		int rows = in_img.getHeight(), cols = in_img.getWidth();
+		// //(float *) malloc(rows*cols*sizeof(float));
+		float[] imgpxls = new float[LinesUtil.IMAGE_SIZE(cols, rows)];
+		for (i2 = 0; i2 < rows; i2++)
+			for (j2 = 0; j2 < cols; j2++)
+				imgpxls[LinesUtil.LINCOOR(i2, j2, cols)] = in_img.getf(j2, i2);
+		return new FloatProcessor(cols, rows, imgpxls);
+	}
+
 	/**
 	 * Log.
 	 *
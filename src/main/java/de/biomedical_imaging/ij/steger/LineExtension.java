@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LineExtension.
+ */
+/*
+ * The extension of one end of a line up to the line it hits, as found by the
+ * search along the gradient. The point at which the other line is hit is only
+ * searched when the extension is added, since that line may itself have been
+ * extended by then. The arrays have room for that point after the num points
+ * of the extension.
+ */
+public class LineExtension {
+
+	/** The num. */
+	int num; /* number of points before the line that is hit */
+
+	/** The row. */
+	float[] row; /* row coordinates of the points */
+
+	/** The col. */
+	float[] col; /* column coordinates of the points */
+
+	/** The line. */
+	int line; /* number of the line that is hit */
+
+	/** The px. */
+	double px; /* row coordinate of the position at which the line is hit */
+
+	/** The py. */
+	double py; /* column coordinate of the position at which the line is hit */
+
+	/** The alpha. */
+	double alpha; /* angle of the normal at the end of the extended line */
+
+	/** The response. */
+	double response; /* response at the end of the extended line */
+}
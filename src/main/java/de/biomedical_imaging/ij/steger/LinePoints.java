@@ -0,0 +1,455 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.Arrays;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LinePoints.
+ */
+/*
+ * Sparse store of the line points of an image, i.e., of the pixels with
+ * ismax > 0. Only a small fraction of the pixels are line points, so the
+ * attributes of the points are kept in parallel arrays that are indexed by the
+ * slot of a point instead of in dense images. The points are sorted by their
+ * linear index. The slot of a pixel is found in O(1) with a bit set that has
+ * one bit per pixel and the number of points before each word of the bit set,
+ * i.e., about 0.2 bytes per pixel. The sub-pixel response of every point is
+ * interpolated once from the dense responses when the store is built, so the
+ * dense responses are not needed by Link. The direction of the line, which Link
+ * needs for every neighbour it looks at, is computed once when a point is
+ * added, i.e., in the parallel bands of Position.compute_line_points. It is
+ * kept in double (8 bytes per point, a few MB for the 10^5 to 10^6 points of a
+ * dense image), since Link compares the angle differences of neighbours and a
+ * float would change which neighbours are picked.
+ */
+public class LinePoints {
+
+	/** The width. */
+	private int width;
+
+	/** The height. */
+	private int height;
+
+	/** The number of points. */
+	private int num;
+
+	/** The linear index of the points, ascending. */
+	private int[] index;
+
+	/** The ismax value (1 or 2) of the points. */
+	private byte[] ismax;
+
+	/** The eigenvalue (the response) of the points. */
+	private float[] ev;
+
+	/** The row component of the normal. */
+	private float[] nx;
+
+	/** The column component of the normal. */
+	private float[] ny;
+
+	/** The sub-pixel row. */
+	private float[] px;
+
+	/** The sub-pixel column. */
+	private float[] py;
+
+	/** The response interpolated at the sub-pixel position. */
+	private float[] resp;
+
+	/** The direction of the line, in [0,pi). */
+	private double[] alpha;
+
+	/** The bit set of the pixels that are points. */
+	private long[] bits;
+
+	/** The number of points before each word of bits. */
+	private int[] rank;
+
+	/**
+	 * Instantiates a new empty store.
+	 *
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 */
+	public LinePoints(int width, int height) {
+		this.width = width;
+		this.height = height;
+		num = 0;
+		index = new int[LinesUtil.INITIAL_SIZE];
+		ismax = new byte[LinesUtil.INITIAL_SIZE];
+		ev = new float[LinesUtil.INITIAL_SIZE];
+		nx = new float[LinesUtil.INITIAL_SIZE];
+		ny = new float[LinesUtil.INITIAL_SIZE];
+		px = new float[LinesUtil.INITIAL_SIZE];
+		py = new float[LinesUtil.INITIAL_SIZE];
+		alpha = new double[LinesUtil.INITIAL_SIZE];
+	}
+
+	/**
+	 * From dense.
+	 *
+	 * @param ismax
+	 *            the ismax
+	 * @param eigval
+	 *            the eigval
+	 * @param normx
+	 *            the normx
+	 * @param normy
+	 *            the normy
+	 * @param posx
+	 *            the posx
+	 * @param posy
+	 *            the posy
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @return the store of the pixels with ismax &gt; 0
+	 */
+	public static LinePoints from_dense(byte[] ismax, float[] eigval, float[] normx, float[] normy, float[] posx,
+			float[] posy, int width, int height) {
+		LinePoints points = new LinePoints(width, height);
+		int l, size = LinesUtil.IMAGE_SIZE(width, height);
+
+		for (l = 0; l < size; l++) {
+			if (ismax[l] > 0)
+				points.add(l, ismax[l], eigval[l], normx[l], normy[l], posx[l], posy[l]);
+		}
+		points.finish(eigval);
+		return points;
+	}
+
+	/**
+	 * Merge.
+	 *
+	 * @param parts
+	 *            the stores of disjoint ranges of the image in ascending order,
+	 *            null entries are skipped
+	 * @param eigval
+	 *            the dense responses
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @return the store of all points of the parts
+	 */
+	public static LinePoints merge(LinePoints[] parts, float[] eigval, int width, int height) {
+		LinePoints points = new LinePoints(width, height);
+		int n = 0, o = 0;
+
+		for (LinePoints part : parts)
+			if (part != null)
+				n += part.num;
+		points.grow(n);
+		for (LinePoints part : parts) {
+			if (part == null)
+				continue;
+			System.arraycopy(part.index, 0, points.index, o, part.num);
+			System.arraycopy(part.ismax, 0, points.ismax, o, part.num);
+			System.arraycopy(part.ev, 0, points.ev, o, part.num);
+			System.arraycopy(part.nx, 0, points.nx, o, part.num);
+			System.arraycopy(part.ny, 0, points.ny, o, part.num);
+			System.arraycopy(part.px, 0, points.px, o, part.num);
+			System.arraycopy(part.py, 0, points.py, o, part.num);
+			System.arraycopy(part.alpha, 0, points.alpha, o, part.num);
+			o += part.num;
+		}
+		points.num = n;
+		points.finish(eigval);
+		return points;
+	}
+
+	/**
+	 * Add a point. The points must be added in ascending order of their index.
+	 *
+	 * @param l
+	 *            the linear index
+	 * @param max
+	 *            the ismax value (1 or 2)
+	 * @param e
+	 *            the eigenvalue
+	 * @param n1
+	 *            the row component of the normal
+	 * @param n2
+	 *            the column component of the normal
+	 * @param p1
+	 *            the sub-pixel row
+	 * @param p2
+	 *            the sub-pixel column
+	 */
+	public void add(int l, byte max, float e, float n1, float n2, float p1, float p2) {
+		if (num >= index.length)
+			grow(Math.max(num + 1, (int) Math.floor(index.length * LinesUtil.REALLOC_FACTOR)));
+		index[num] = l;
+		ismax[num] = max;
+		ev[num] = e;
+		nx[num] = n1;
+		ny[num] = n2;
+		px[num] = p1;
+		py[num] = p2;
+		/* The line direction is perpendicular to the normal. */
+		alpha[num] = Math.atan2(n1, -n2);
+		if (alpha[num] < 0.0)
+			alpha[num] += 2.0 * Math.PI;
+		if (alpha[num] >= Math.PI)
+			alpha[num] -= Math.PI;
+		num++;
+	}
+
+	/**
+	 * Grow.
+	 *
+	 * @param size
+	 *            the minimum capacity
+	 */
+	private void grow(int size) {
+		if (size <= index.length)
+			return;
+		index = Arrays.copyOf(index, size);
+		ismax = Arrays.copyOf(ismax, size);
+		ev = Arrays.copyOf(ev, size);
+		nx = Arrays.copyOf(nx, size);
+		ny = Arrays.copyOf(ny, size);
+		px = Arrays.copyOf(px, size);
+		py = Arrays.copyOf(py, size);
+		alpha = Arrays.copyOf(alpha, size);
+	}
+
+	/**
+	 * Finish the store: interpolate the responses and build the lookup.
+	 *
+	 * @param eigval
+	 *            the dense responses
+	 */
+	private void finish(float[] eigval) {
+		int i, l, w;
+
+		resp = new float[num];
+		for (i = 0; i < num; i++) {
+			l = index[i];
+			resp[i] = (float) interpolate_response(eigval, l / width, l % width, px[i], py[i]);
+		}
+		/* In long, since width * height + 63 may exceed the int range */
+		bits = new long[(int) (((long) width * height + 63) >>> 6)];
+		rank = new int[bits.length];
+		for (i = 0; i < num; i++)
+			bits[index[i] >>> 6] |= 1L << index[i];
+		for (w = 1; w < bits.length; w++)
+			rank[w] = rank[w - 1] + Long.bitCount(bits[w - 1]);
+	}
+
+	/**
+	 * Interpolate response.
+	 *
+	 * @param eigval
+	 *            the dense responses
+	 * @param x
+	 *            the x
+	 * @param y
+	 *            the y
+	 * @param px
+	 *            the px
+	 * @param py
+	 *            the py
+	 * @return the double
+	 */
+	/*
+	 * Compute the response of the operator with sub-pixel accuracy by using the
+	 * facet model to interpolate the pixel accurate responses. The 3x3
+	 * neighbourhood is mirrored at the border of the image.
+	 */
+	private double interpolate_response(float[] eigval, int x, int y, double px, double py) {
+		double i1, i2, i3, i4, i5, i6, i7, i8, i9;
+		double t1, t2, t3, t4, t5, t6;
+		double d, dr, dc, drr, drc, dcc;
+		double xx, yy;
+		int ru = LinesUtil.MIRROR(x - 1, height) * width, rm = x * width, rd = LinesUtil.MIRROR(x + 1, height) * width;
+		int cl = LinesUtil.MIRROR(y - 1, width), cr = LinesUtil.MIRROR(y + 1, width);
+
+		i1 = eigval[ru + cl];
+		i2 = eigval[ru + y];
+		i3 = eigval[ru + cr];
+		i4 = eigval[rm + cl];
+		i5 = eigval[rm + y];
+		i6 = eigval[rm + cr];
+		i7 = eigval[rd + cl];
+		i8 = eigval[rd + y];
+		i9 = eigval[rd + cr];
+		t1 = i1 + i2 + i3;
+		t2 = i4 + i5 + i6;
+		t3 = i7 + i8 + i9;
+		t4 = i1 + i4 + i7;
+		t5 = i2 + i5 + i8;
+		t6 = i3 + i6 + i9;
+		d = (-i1 + 2 * i2 - i3 + 2 * i4 + 5 * i5 + 2 * i6 - i7 + 2 * i8 - i9) / 9;
+		dr = (t3 - t1) / 6;
+		dc = (t6 - t4) / 6;
+		drr = (t1 - 2 * t2 + t3) / 6;
+		dcc = (t4 - 2 * t5 + t6) / 6;
+		drc = (i1 - i3 - i7 + i9) / 4;
+		xx = px - x;
+		yy = py - y;
+		return d + xx * dr + yy * dc + xx * xx * drr + xx * yy * drc + yy * yy * dcc;
+	}
+
+	/**
+	 * Slot.
+	 *
+	 * @param l
+	 *            the linear index of a pixel
+	 * @return the slot of the point at the pixel, or -1 if the pixel is not a
+	 *         point
+	 */
+	public int slot(int l) {
+		long word = bits[l >>> 6];
+		long bit = 1L << l;
+
+		if ((word & bit) == 0)
+			return -1;
+		return rank[l >>> 6] + Long.bitCount(word & (bit - 1));
+	}
+
+	/**
+	 * Gets the width.
+	 *
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height.
+	 *
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the number of points.
+	 *
+	 * @return the number of points
+	 */
+	public int getNum() {
+		return num;
+	}
+
+	/**
+	 * Gets the linear indices.
+	 *
+	 * @return the linear index of each slot
+	 */
+	public int[] getIndex() {
+		return index;
+	}
+
+	/**
+	 * Gets the ismax values.
+	 *
+	 * @return the ismax value (1 or 2) of each slot
+	 */
+	public byte[] getIsmax() {
+		return ismax;
+	}
+
+	/**
+	 * Gets the eigenvalues.
+	 *
+	 * @return the eigenvalue of each slot
+	 */
+	public float[] getEv() {
+		return ev;
+	}
+
+	/**
+	 * Gets the row components of the normals.
+	 *
+	 * @return the nx of each slot
+	 */
+	public float[] getNx() {
+		return nx;
+	}
+
+	/**
+	 * Gets the column components of the normals.
+	 *
+	 * @return the ny of each slot
+	 */
+	public float[] getNy() {
+		return ny;
+	}
+
+	/**
+	 * Gets the sub-pixel rows.
+	 *
+	 * @return the px of each slot
+	 */
+	public float[] getPx() {
+		return px;
+	}
+
+	/**
+	 * Gets the sub-pixel columns.
+	 *
+	 * @return the py of each slot
+	 */
+	public float[] getPy() {
+		return py;
+	}
+
+	/**
+	 * Gets the interpolated responses.
+	 *
+	 * @return the response at the sub-pixel position of each slot
+	 */
+	public float[] getResp() {
+		return resp;
+	}
+
+	/**
+	 * Gets the directions of the line.
+	 *
+	 * @return the direction of the line in [0,pi) of each slot
+	 */
+	public double[] getAlpha() {
+		return alpha;
+	}
+
+	/**
+	 * Octant.
+	 *
+	 * @param alpha
+	 *            the direction of the line in [0,pi)
+	 * @return the octant (0-3) of the direction
+	 */
+	public static int octant(double alpha) {
+		return (int) (Math.floor(4.0 / Math.PI * alpha + 0.5)) % 4;
+	}
+
+}
@@ -27,6 +27,9 @@ package de.biomedical_imaging.ij.steger;
  */
 public class LinesUtil {
 
+	/** The Constant DERIV_0. */
+	public static final int DERIV_0 = 0; /* No derivative, Gaussian smoothing only */
+
 	/** The Constant DERIV_R. */
 	public static final int DERIV_R = 1; /* Derivative in row direction */
 
@@ -42,6 +45,9 @@ public class LinesUtil {
 	/** The Constant DERIV_CC. */
 	public static final int DERIV_CC = 5; /* Second derivative in column direction */
 
+	/** The Constant DERIV_0_WIDE. */
+	public static final int DERIV_0_WIDE = 6; /* Gaussian smoothing with the size of the 2nd derivative mask */
+
 	/** The Constant MODE_LIGHT. */
 	public static final int MODE_LIGHT = 1; /* Extract bright lines */
 
@@ -118,6 +124,32 @@ public class LinesUtil {
 	/** The Constant ERR_TMF. */
 	public static final String ERR_TMF = "Too many files specified:";
 
+	/** The Constant ERR_TLI. */
+	public static final String ERR_TLI = "Image too large:";
+
+	/**
+	 * Image size.
+	 *
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @return the number of pixels of the image
+	 */
+	/*
+	 * Length of the one-dimensional array of an image. Arrays are indexed by int,
+	 * so an image with more than Integer.MAX_VALUE pixels is rejected here instead
+	 * of overflowing in the size of a buffer or in LINCOOR. Within that limit
+	 * LINCOOR cannot overflow, and width or height alone may exceed 32767.
+	 */
+	public static int IMAGE_SIZE(int width, int height) {
+		try {
+			return Math.multiplyExact(width, height);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException(ERR_TLI + " " + width + " x " + height, e);
+		}
+	}
+
 	/**
 	 * Lincoor.
 	 *
@@ -171,6 +203,32 @@ public class LinesUtil {
 		return ((col) < 0 ? -(col) : (col) >= width ? width - (col) + width - 2 : (col));
 	}
 
+	/**
+	 * Mirror.
+	 *
+	 * @param i
+	 *            the coordinate
+	 * @param n
+	 *            the size of the image in the direction of the coordinate
+	 * @return the int
+	 */
+	/*
+	 * Mirror a coordinate at the borders of the image like BR and BC, but
+	 * repeatedly, so that coordinates that lie more than one image size outside
+	 * the image are also mapped into the image.
+	 */
+	public static int MIRROR(int i, int n) {
+		int period;
+
+		if (n == 1)
+			return 0;
+		period = 2 * n - 2;
+		i %= period;
+		if (i < 0)
+			i += period;
+		return i < n ? i : period - i;
+	}
+
 	/**
 	 * The Enum contour_class.
 	 */
@@ -156,6 +156,21 @@ public class Lines_ implements ExtendedPlugInFilter, DialogListener {
 	/** The overlap option. */
 	OverlapOption overlapOption = OverlapOption.NONE;
 
+	/** The derivative option. */
+	DerivativeOption derivativeOption = DerivativeOption.AUTO;
+
+	/**
+	 * The contexts of the detectors. The slices of a stack are processed by
+	 * several threads (PARALLELIZE_STACKS), and every thread reuses its own
+	 * context for the slices it processes.
+	 */
+	private ThreadLocal<ConvolutionContext> context = new ThreadLocal<ConvolutionContext>() {
+		@Override
+		protected ConvolutionContext initialValue() {
+			return new ConvolutionContext();
+		}
+	};
+
 	/** The Constant showIDsDefault. */
 	final static boolean showIDsDefault = false;
 
@@ -333,6 +348,13 @@ public class Lines_ implements ExtendedPlugInFilter, DialogListener {
 
 		gd.addChoice("Method_for_overlap_resolution", overlap, overlapOption.name());
 
+		final String[] derivative = new String[DerivativeOption.values().length];
+		for (int i = 0; i < derivative.length; i++) {
+			derivative[i] = DerivativeOption.values()[i].name();
+		}
+
+		gd.addChoice("Derivative_filter", derivative, derivativeOption.name());
+
 		gd.addHelp("http://fiji.sc/Ridge_Detection");
 		gd.addDialogListener(this);
 		gd.addPreviewCheckbox(pfr, "Preview");
@@ -363,6 +385,7 @@ public class Lines_ implements ExtendedPlugInFilter, DialogListener {
 		addToRoiManager = gd.getNextBoolean();
 		makeBinary = gd.getNextBoolean();
 		overlapOption = OverlapOption.valueOf(gd.getNextChoice());
+		derivativeOption = DerivativeOption.valueOf(gd.getNextChoice());
 		saveSettings();
 
 		result = new ArrayList<Lines>();
@@ -398,6 +421,8 @@ public class Lines_ implements ExtendedPlugInFilter, DialogListener {
 		makeBinary = Prefs.get("RidgeDetection.makeBinary", makeBinaryDefault);
 		String overlapOptionString = Prefs.get("RidgeDetection.overlapOption", OverlapOption.NONE.name());
 		overlapOption = OverlapOption.valueOf(overlapOptionString);
+		String derivativeOptionString = Prefs.get("RidgeDetection.derivativeOption", DerivativeOption.AUTO.name());
+		derivativeOption = DerivativeOption.valueOf(derivativeOptionString);
 
 	}
 
@@ -424,6 +449,7 @@ public class Lines_ implements ExtendedPlugInFilter, DialogListener {
 		Prefs.set("RidgeDetection.addToRoiManager", addToRoiManager);
 		Prefs.set("RidgeDetection.makeBinary", makeBinary);
 		Prefs.set("RidgeDetection.overlapOption", overlapOption.name());
+		Prefs.set("RidgeDetection.derivativeOption", derivativeOption.name());
 	}
 
 	/**
@@ -795,6 +821,7 @@ public class Lines_ implements ExtendedPlugInFilter, DialogListener {
 		addToRoiManager = gd.getNextBoolean();
 		makeBinary = gd.getNextBoolean();
 		overlapOption = OverlapOption.valueOf(gd.getNextChoice());
+		derivativeOption = DerivativeOption.valueOf(gd.getNextChoice());
 		if (lwChanged || contHighChanged || contLowChanged) {
 			contrastOrLineWidthChangedOnce = true;
 		}
@@ -857,6 +884,8 @@ public class Lines_ implements ExtendedPlugInFilter, DialogListener {
 
 		LineDetector detect = new LineDetector();
 		detect.bechatty = verbose;
+		detect.setDerivativeOption(derivativeOption);
+		detect.setContext(context.get());
 
 		result.add(detect.detectLines(ip, sigma, upperThresh, lowerThresh, minLength, maxLength, isDarkLine,
 				doCorrectPosition, doEstimateWidth, doExtendLine, overlapOption));
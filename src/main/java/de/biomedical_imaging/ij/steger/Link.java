@@ -21,6 +21,8 @@
  */
 package de.biomedical_imaging.ij.steger;
 
+import java.util.concurrent.ForkJoinPool;
+
 import org.apache.commons.lang3.mutable.MutableDouble;
 import org.apache.commons.lang3.mutable.MutableInt;
 
@@ -54,59 +56,51 @@ public class Link {
 			{ { -1, 0 }, { 1, 0 } }, { { -1, -1 }, { 1, 1 } }, { { 0, -1 }, { 0, 1 } }, { { 1, -1 }, { -1, 1 } },
 			{ { 1, 0 }, { -1, 0 } }, { { 1, 1 }, { -1, -1 } } };
 
+	/** The Constant backtab. */
+	/*
+	 * This table contains the four neighbor pixels that precede a pixel in the
+	 * order of the index, i.e., the 8-neighbors that are visited before it when
+	 * the connected components of the line points are labelled.
+	 */
+	final static int[][] backtab = new int[][] { { 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 } };
+
+	/** The context that provides the scratch buffers. */
+	private ConvolutionContext context;
+
+	/** The pool used to link the connected components in parallel. */
+	private ForkJoinPool pool;
+
+	/**
+	 * Instantiates a new link.
+	 */
+	public Link() {
+		this(new ConvolutionContext());
+	}
+
 	/**
-	 * Interpolate response.
+	 * Instantiates a new link which takes its scratch buffers from the given
+	 * context.
 	 *
-	 * @param resp
-	 *            the resp
-	 * @param x
-	 *            the x
-	 * @param y
-	 *            the y
-	 * @param px
-	 *            the px
-	 * @param py
-	 *            the py
-	 * @param width
-	 *            the width
-	 * @param height
-	 *            the height
-	 * @return the double
+	 * @param context
+	 *            the context that provides the scratch buffers
 	 */
-	/*
-	 * Compute the response of the operator with sub-pixel accuracy by using the
-	 * facet model to interpolate the pixel accurate responses.
+	public Link(ConvolutionContext context) {
+		this(null, context);
+	}
+
+	/**
+	 * Instantiates a new link which links the connected components of the line
+	 * points in parallel and takes its scratch buffers from the given context.
+	 *
+	 * @param pool
+	 *            the pool used to link the connected components in parallel, or
+	 *            null to link on the calling thread
+	 * @param context
+	 *            the context that provides the scratch buffers
 	 */
-	private double interpolate_response(float[] resp, int x, int y, double px, double py, int width, int height) {
-		double i1, i2, i3, i4, i5, i6, i7, i8, i9;
-		double t1, t2, t3, t4, t5, t6;
-		double d, dr, dc, drr, drc, dcc;
-		double xx, yy;
-
-		i1 = resp[LinesUtil.LINCOOR(LinesUtil.BR(x - 1, height), LinesUtil.BC(y - 1, width), width)];
-		i2 = resp[LinesUtil.LINCOOR(LinesUtil.BR(x - 1, height), y, width)];
-		i3 = resp[LinesUtil.LINCOOR(LinesUtil.BR(x - 1, height), LinesUtil.BC(y + 1, width), width)];
-		i4 = resp[LinesUtil.LINCOOR(x, LinesUtil.BC(y - 1, width), width)];
-		i5 = resp[LinesUtil.LINCOOR(x, y, width)];
-		i6 = resp[LinesUtil.LINCOOR(x, LinesUtil.BC(y + 1, width), width)];
-		i7 = resp[LinesUtil.LINCOOR(LinesUtil.BR(x + 1, height), LinesUtil.BC(y - 1, width), width)];
-		i8 = resp[LinesUtil.LINCOOR(LinesUtil.BR(x + 1, height), y, width)];
-		i9 = resp[LinesUtil.LINCOOR(LinesUtil.BR(x + 1, height), LinesUtil.BC(y + 1, width), width)];
-		t1 = i1 + i2 + i3;
-		t2 = i4 + i5 + i6;
-		t3 = i7 + i8 + i9;
-		t4 = i1 + i4 + i7;
-		t5 = i2 + i5 + i8;
-		t6 = i3 + i6 + i9;
-		d = (-i1 + 2 * i2 - i3 + 2 * i4 + 5 * i5 + 2 * i6 - i7 + 2 * i8 - i9) / 9;
-		dr = (t3 - t1) / 6;
-		dc = (t6 - t4) / 6;
-		drr = (t1 - 2 * t2 + t3) / 6;
-		dcc = (t4 - 2 * t5 + t6) / 6;
-		drc = (i1 - i3 - i7 + i9) / 4;
-		xx = px - x;
-		yy = py - y;
-		return d + xx * dr + yy * dc + xx * xx * drr + xx * yy * drc + yy * yy * dcc;
+	public Link(ForkJoinPool pool, ConvolutionContext context) {
+		this.pool = pool;
+		this.context = context;
 	}
 
 	/**
@@ -253,901 +247,421 @@ public class Link {
 	public void compute_contours(byte[] ismax, float[] eigval, float[] normx, float[] normy, float[] posx, float[] posy,
 			float[] gradx, float[] grady, Lines contours, MutableInt num_result, double sigma, boolean extend_lines,
 			int mode, double low, double high, int width, int height, Junctions junctions) {
-		int i = 0, j = 0, k, l, it, pos, nextpos, nexti;
+		compute_contours(LinePoints.from_dense(ismax, eigval, normx, normy, posx, posy, width, height), gradx, grady,
+				contours, num_result, sigma, extend_lines, mode, low, high, width, height, junctions);
+	}
+
+	/**
+	 * Compute contours.
+	 *
+	 * @param points
+	 *            the line points
+	 * @param gradx
+	 *            the gradx
+	 * @param grady
+	 *            the grady
+	 * @param contours
+	 *            the contours
+	 * @param num_result
+	 *            the num result
+	 * @param sigma
+	 *            the sigma
+	 * @param extend_lines
+	 *            the extend lines
+	 * @param mode
+	 *            the mode
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param junctions
+	 *            the junctions
+	 */
+	/*
+	 * Same as above with the line points in a sparse store. The attributes of
+	 * the point at pixel pos are read from its slot points.slot(pos).
+	 */
+	public void compute_contours(LinePoints points, float[] gradx, float[] grady, Lines contours,
+			MutableInt num_result, double sigma, boolean extend_lines, int mode, double low, double high, int width,
+			int height, Junctions junctions) {
+		int i = 0, j = 0, k, l, it, pos;
 		int begin, end;
 		int x, y;
-		int octant, last_octant;
 		int[] label;
 		int num_cont, num_pnt;
-		int size_cont, size_pnt;
-		float[] row, col, trow, tcol;
-		float[] angle, tangle;
-		float[] resp, tresp;
+		int size_cont;
+		float[] trow, tcol;
+		float[] tangle;
+		float[] tresp;
+		byte[] ismax = points.getIsmax();
+		float[] eigval = points.getEv();
+		int[] index = points.getIndex();
+		float[] posx = points.getPx();
+		float[] posy = points.getPy();
+		int ns;
 		Junction[] junc;
 		int num_junc, size_junc;
 		Line[] cont;
 		Line tmp_cont;
-		LinesUtil.contour_class cls;
-		double max;
-		int maxx, maxy;
+		LineExtension extension;
 		int nextx, nexty;
 		double nx, ny;
-		double alpha, nextalpha, diff, mindiff, dist, mindist;
-		double beta, last_beta, diff1, diff2;
-		double px, py, nextpx = 0, nextpy = 0;
+		double alpha;
+		double beta, diff1, diff2;
 		double dx, dy;
-		float tmp;
 		int area;
 		int[] indx;
-		int indx_max;
-		boolean nextismax;
-		Crossref[] cross;
-		int m = 0, max_line, num_add;
-		MutableInt num_line = new MutableInt();
-		double length, response;
-		Offset[] line;
-		double mx, my, gx, gy, s, end_angle = 0, end_resp = 0;
-		MutableDouble t = new MutableDouble();
+		int[] point;
+		double spread;
+		int[] seeds;
+		boolean[] done;
+		int[] parent, comp, rank_comp, comp_start, comp_seeds, number;
+		int num_comp;
+		LinkedLine[] numbered;
+		int[] ext_start, ext_end;
+		int m = 0, num_add;
+		double response;
+		double end_angle = 0, end_resp = 0;
 		float[] extx, exty;
-		boolean add_ext;
-		Region seg = new Region();
-		Chord[] rl;
-		Width w = new Width();
 
 		/*
-		 * The image label contains information on the pixels that have been processed
+		 * The linking only labels line points, so the bookkeeping is kept per slot of
+		 * the line points instead of in images, and its memory scales with the number
+		 * of line points. A pixel that is not a line point has label 0.
+		 */
+
+		/*
+		 * The table label contains information on the points that have been processed
 		 * by the linking algorithm.
 		 */
-		label = new int[(width * height)];
-		java.util.Arrays.fill(label, 0); // Vermutlich nicht notwendig, da
-											// standardmäßig 0.
+		label = new int[points.getNum()];
 
 		/*
-		 * The image indx is an index into the table of all pixels that possibly could
+		 * The table indx is an index into the table of all points that possibly could
 		 * be starting points for new lines. It is used to quickly determine the next
 		 * starting point of a line.
 		 */
-		indx = new int[(width * height)];
-		java.util.Arrays.fill(indx, 0);
+		indx = new int[points.getNum()];
+
+		/*
+		 * The table point contains the order + 1 in which a line added each point. It
+		 * is used to quickly find a point on a line from its position.
+		 */
+		point = new int[points.getNum()];
+
+		/*
+		 * The largest distance of a line point from the center of its pixel in either
+		 * direction, plus a little for rounding, bounds the pixels in which a point
+		 * near a position can lie.
+		 */
+		spread = 0;
+		for (i = 0; i < points.getNum(); i++) {
+			spread = Math.max(spread, Math.abs(posx[i] - index[i] / width));
+			spread = Math.max(spread, Math.abs(posy[i] - index[i] % width));
+		}
+		spread += 1e-3;
 
 		num_cont = 0;
 		num_junc = 0;
 		size_cont = LinesUtil.INITIAL_SIZE;
-		size_pnt = LinesUtil.INITIAL_SIZE;
 		size_junc = LinesUtil.INITIAL_SIZE;
 		cont = new Line[size_cont];
 		for (int o = 0; o < cont.length; o++) {
 			cont[o] = new Line();
 		}
-		row = new float[size_pnt];
-		col = new float[size_pnt];
-		angle = new float[size_pnt];
-		resp = new float[size_pnt];
 		junc = new Junction[size_junc];
 		for (int o = 0; o < junc.length; o++) {
 			junc[o] = new Junction();
 		}
 
-		/* Select all pixels that can be starting points for lines. */
-		Threshold.threshold(ismax, 2, width, height, seg);
-
-		/* Count the number of possible starting points. */
+		/*
+		 * All points with ismax = 2 can be starting points for lines. They are
+		 * selected in the order of their index, like the runs of a threshold.
+		 */
 		area = 0;
-		for (i = 0; i < seg.num; i++)
-			area += seg.rl[i].ce - seg.rl[i].cb + 1;
+		for (i = 0; i < points.getNum(); i++)
+			if (ismax[i] == 2)
+				area++;
 
-		/* Create the index of possible starting points. */
-		cross = new Crossref[area];
-		for (int o = 0; o < cross.length; o++) {
-			cross[o] = new Crossref();
-		}
+		/*
+		 * Create the index of possible starting points: the slots of the points,
+		 * sorted by decreasing response. The sort is stable, so points with the
+		 * same response are selected in the order of their index.
+		 */
+		seeds = new int[area];
+		done = new boolean[area];
 		k = 0;
-		rl = seg.rl;
-		for (i = 0; i < seg.num; i++) {
-			x = rl[i].r;
-			for (y = rl[i].cb; y <= rl[i].ce; y++) {
-				pos = LinesUtil.LINCOOR(x, y, width);
-				cross[k].x = (short) x;
-				cross[k].y = (short) y;
-				cross[k].value = eigval[pos];
-				cross[k].done = false;
-				k++;
+		for (i = 0; i < points.getNum(); i++)
+			if (ismax[i] == 2)
+				seeds[k++] = i;
+		RadixSort.sort_descending(seeds, eigval, area);
+		for (i = 0; i < area; i++)
+			indx[seeds[i]] = i + 1;
+
+		/*
+		 * Label the 8-connected components of the line points with a union-find
+		 * over the slots. A line only steps to, and only labels, 8-neighbours that
+		 * are line points, so the lines of different components never meet and
+		 * the components can be linked independently. The starting points are
+		 * grouped by component in the order of their rank, and the components are
+		 * numbered in the order of their strongest starting point.
+		 */
+		parent = new int[points.getNum()];
+		for (i = 0; i < points.getNum(); i++) {
+			parent[i] = i;
+			x = index[i] / width;
+			y = index[i] % width;
+			for (j = 0; j < 4; j++) {
+				nextx = x + backtab[j][0];
+				nexty = y + backtab[j][1];
+				if (nextx < 0 || nexty < 0 || nexty >= width)
+					continue;
+				ns = points.slot(LinesUtil.LINCOOR(nextx, nexty, width));
+				if (ns >= 0)
+					union(parent, i, ns);
 			}
 		}
-
-		java.util.Arrays.sort(cross);
-		// qsort(cross,area,sizeof(*cross),compare_crossrefs);
+		comp = new int[points.getNum()];
+		java.util.Arrays.fill(comp, -1);
+		rank_comp = new int[area];
+		num_comp = 0;
+		for (i = 0; i < area; i++) {
+			k = find(parent, seeds[i]);
+			if (comp[k] < 0)
+				comp[k] = num_comp++;
+			rank_comp[i] = comp[k];
+		}
+		comp_start = new int[num_comp + 1];
+		for (i = 0; i < area; i++)
+			comp_start[rank_comp[i] + 1]++;
+		for (i = 0; i < num_comp; i++)
+			comp_start[i + 1] += comp_start[i];
+		comp_seeds = new int[area];
+		java.util.Arrays.fill(comp, 0, num_comp, 0);
 		for (i = 0; i < area; i++)
-			indx[LinesUtil.LINCOOR(cross[i].x, cross[i].y, width)] = i + 1;
+			comp_seeds[comp_start[rank_comp[i]] + comp[rank_comp[i]]++] = i;
 
 		/* Link lines points. */
-		indx_max = 0;
-		for (;;) {
-			/*
-			 * Contour class unknown at this point; therefore assume both ends free.
-			 */
-			cls = LinesUtil.contour_class.cont_no_junc;
-			/* Search for next starting point. */
-			while (indx_max < area && cross[indx_max].done)
-				indx_max++;
-			/* Stop if no feasible starting point exists. */
-			if (indx_max == area)
-				break;
-			max = cross[indx_max].value;
-			maxx = cross[indx_max].x;
-			maxy = cross[indx_max].y;
-			if (max == 0.0)
-				break;
-
-			/* Add starting point to the line. */
-			num_pnt = 0;
-			pos = LinesUtil.LINCOOR(maxx, maxy, width);
-			label[pos] = (num_cont + 1);
-			if (!(indx[pos] == 0))
-				cross[(indx[pos] - 1)].done = true;
-			row[num_pnt] = posx[pos];
-			col[num_pnt] = posy[pos];
-			/* Select line direction. */
-			nx = -normy[pos];
-			ny = normx[pos];
-			alpha = Math.atan2(ny, nx);
-			if (alpha < 0.0)
-				alpha += 2.0 * Math.PI;
-			if (alpha >= Math.PI)
-				alpha -= Math.PI;
-			octant = (int) (Math.floor(4.0 / Math.PI * alpha + 0.5)) % 4;
-			/*
-			 * Select normal to the line. The normal points to the right of the line as the
-			 * line is traversed from 0 to num-1. Since the points are sorted in reverse
-			 * order before the second iteration, the first beta actually has to point to
-			 * the left of the line!
-			 */
-			beta = alpha + Math.PI / 2.0;
-			if (beta >= 2.0 * Math.PI)
-				beta -= 2.0 * Math.PI;
-			angle[num_pnt] = (float) beta;
-			resp[num_pnt] = (float) interpolate_response(eigval, maxx, maxy, posx[pos], posy[pos], width, height);
-			num_pnt++;
-			/* Mark double responses as processed. */
-			for (i = 0; i < 2; i++) {
-				nextx = maxx + cleartab[octant][i][0];
-				nexty = maxy + cleartab[octant][i][1];
-				if (nextx < 0 || nextx >= height || nexty < 0 || nexty >= width)
-					continue;
-				nextpos = LinesUtil.LINCOOR(nextx, nexty, width);
-				if (ismax[nextpos] > 0) {
-					nx = -normy[nextpos];
-					ny = normx[nextpos];
-					nextalpha = Math.atan2(ny, nx);
-					if (nextalpha < 0.0)
-						nextalpha += 2.0 * Math.PI;
-					if (nextalpha >= Math.PI)
-						nextalpha -= Math.PI;
-					diff = Math.abs(alpha - nextalpha);
-					if (diff >= Math.PI / 2.0)
-						diff = Math.PI - diff;
-					if (diff < MAX_ANGLE_DIFFERENCE) {
-						label[nextpos] = (num_cont + 1);
-						if (!(indx[nextpos] == 0))
-							cross[(indx[nextpos] - 1)].done = true;
-					}
-				}
+		final LinkedLine[] linked = new LinkedLine[area];
+		final int[] fseeds = seeds, fcomp_start = comp_start, fcomp_seeds = comp_seeds, flabel = label, findx = indx,
+				fpoint = point;
+		final boolean[] fdone = done;
+		final LinePoints fpoints = points;
+		final int fwidth = width, fheight = height;
+		final double fspread = spread;
+		BandExecutor.execute(pool, 0, num_comp, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				link_components(fpoints, fseeds, fcomp_start, fcomp_seeds, from, to, fdone, flabel, findx, fpoint,
+						fspread, linked, fwidth, fheight);
 			}
+		});
 
-			for (it = 1; it <= 2; it++) {
-				if (it == 1) {
-					/*
-					 * Search along the initial line direction in the first iteration.
-					 */
-					x = maxx;
-					y = maxy;
-					pos = LinesUtil.LINCOOR(x, y, width);
-					nx = -normy[pos];
-					ny = normx[pos];
-					alpha = Math.atan2(ny, nx);
-					if (alpha < 0.0)
-						alpha += 2.0 * Math.PI;
-					if (alpha >= Math.PI)
-						alpha -= Math.PI;
-					last_octant = (int) (Math.floor(4.0 / Math.PI * alpha + 0.5)) % 4;
-					last_beta = alpha + Math.PI / 2.0;
-					if (last_beta >= 2.0 * Math.PI)
-						last_beta -= 2.0 * Math.PI;
-				} else {
-					/* Search in the opposite direction in the second iteration. */
-					x = maxx;
-					y = maxy;
-					pos = LinesUtil.LINCOOR(x, y, width);
-					nx = -normy[pos];
-					ny = normx[pos];
-					alpha = Math.atan2(ny, nx);
-					if (alpha < 0.0)
-						alpha += 2.0 * Math.PI;
-					if (alpha >= Math.PI)
-						alpha -= Math.PI;
-					last_octant = (int) (Math.floor(4.0 / Math.PI * alpha + 0.5)) % 4 + 4;
-					last_beta = alpha + Math.PI / 2.0;
-					if (last_beta >= 2.0 * Math.PI)
-						last_beta -= 2.0 * Math.PI;
-				}
-				if (it == 2) {
-					/* Sort the points found in the first iteration in reverse. */
-					for (i = 0; i < num_pnt / 2; i++) {
-						tmp = row[i];
-						row[i] = row[(num_pnt - 1 - i)];
-						row[(num_pnt - 1 - i)] = tmp;
-						tmp = col[i];
-						col[i] = col[(num_pnt - 1 - i)];
-						col[(num_pnt - 1 - i)] = tmp;
-						tmp = angle[i];
-						angle[i] = angle[(num_pnt - 1 - i)];
-						angle[(num_pnt - 1 - i)] = tmp;
-						tmp = resp[i];
-						resp[i] = resp[(num_pnt - 1 - i)];
-						resp[(num_pnt - 1 - i)] = tmp;
-					}
-				}
-
-				/* Now start adding appropriate neighbors to the line. */
-				for (;;) {
-					pos = LinesUtil.LINCOOR(x, y, width);
-					nx = -normy[pos];
-					ny = normx[pos];
-					px = posx[pos];
-					py = posy[pos];
-					/* Orient line direction w.r.t. the last line direction. */
-					alpha = Math.atan2(ny, nx);
-					if (alpha < 0.0)
-						alpha += 2.0 * Math.PI;
-					if (alpha >= Math.PI)
-						alpha -= Math.PI;
-					octant = (int) (Math.floor(4.0 / Math.PI * alpha + 0.5)) % 4;
-					switch (octant) {
-					case 0:
-						if (last_octant >= 3 && last_octant <= 5)
-							octant = 4;
-						break;
-					case 1:
-						if (last_octant >= 4 && last_octant <= 6)
-							octant = 5;
-						break;
-					case 2:
-						if (last_octant >= 4 && last_octant <= 7)
-							octant = 6;
-						break;
-					case 3:
-						if (last_octant == 0 || last_octant >= 6)
-							octant = 7;
-						break;
-					}
-					last_octant = octant;
-
-					/* Determine appropriate neighbor. */
-					nextismax = false;
-					nexti = 1;
-					mindiff = Double.MAX_VALUE;
-					for (i = 0; i < 3; i++) {
-						nextx = x + dirtab[octant][i][0];
-						nexty = y + dirtab[octant][i][1];
-						if (nextx < 0 || nextx >= height || nexty < 0 || nexty >= width)
-							continue;
-						nextpos = LinesUtil.LINCOOR(nextx, nexty, width);
-						if (ismax[nextpos] == 0)
-							continue;
-						nextpx = posx[nextpos];
-						nextpy = posy[nextpos];
-						dx = nextpx - px;
-						dy = nextpy - py;
-						dist = Math.sqrt(dx * dx + dy * dy);
-						nx = -normy[nextpos];
-						ny = normx[nextpos];
-						nextalpha = Math.atan2(ny, nx);
-						if (nextalpha < 0.0)
-							nextalpha += 2.0 * Math.PI;
-						if (nextalpha >= Math.PI)
-							nextalpha -= Math.PI;
-						diff = Math.abs(alpha - nextalpha);
-						if (diff >= Math.PI / 2.0)
-							diff = Math.PI - diff;
-						diff = dist + diff;
-						if (diff < mindiff) {
-							mindiff = diff;
-							nexti = i;
-						}
-						if (!(ismax[nextpos] == 0))
-							nextismax = true;
-					}
-
-					/* Mark double responses as processed. */
-					for (i = 0; i < 2; i++) {
-						nextx = x + cleartab[octant][i][0];
-						nexty = y + cleartab[octant][i][1];
-						if (nextx < 0 || nextx >= height || nexty < 0 || nexty >= width)
-							continue;
-						nextpos = LinesUtil.LINCOOR(nextx, nexty, width);
-						if (ismax[nextpos] > 0) {
-							nx = -normy[nextpos];
-							ny = normx[nextpos];
-							nextalpha = Math.atan2(ny, nx);
-							if (nextalpha < 0.0)
-								nextalpha += 2.0 * Math.PI;
-							if (nextalpha >= Math.PI)
-								nextalpha -= Math.PI;
-							diff = Math.abs(alpha - nextalpha);
-							if (diff >= Math.PI / 2.0)
-								diff = Math.PI - diff;
-							if (diff < MAX_ANGLE_DIFFERENCE) {
-								label[nextpos] = (num_cont + 1);
-								if (!(indx[nextpos] == 0))
-									cross[(indx[nextpos] - 1)].done = true;
-							}
-						}
-					}
-
-					/* Have we found the end of the line? */
-					if (!nextismax)
-						break;
-					/* If not, add the neighbor to the line. */
-					x += dirtab[octant][nexti][0];
-					y += dirtab[octant][nexti][1];
-					if (num_pnt >= size_pnt) {
-						size_pnt = (int) Math.floor((double) (size_pnt * LinesUtil.REALLOC_FACTOR));
-						float[] newArr = new float[size_pnt];
-						for (int o = 0; o < row.length; o++) {
-							newArr[o] = row[o];
-						}
-						row = newArr;
-
-						newArr = new float[size_pnt];
-						for (int o = 0; o < col.length; o++) {
-							newArr[o] = col[o];
-						}
-						col = newArr;
-
-						newArr = new float[size_pnt];
-						for (int o = 0; o < angle.length; o++) {
-							newArr[o] = angle[o];
-						}
-						angle = newArr;
-
-						newArr = new float[size_pnt];
-						for (int o = 0; o < resp.length; o++) {
-							resp[o] = resp[o];
-						}
-						resp = newArr;
-					}
-					pos = LinesUtil.LINCOOR(x, y, width);
-					row[num_pnt] = posx[pos];
-					col[num_pnt] = posy[pos];
-
-					/*
-					 * Orient normal to the line direction w.r.t. the last normal.
-					 */
-					nx = normx[pos];
-					ny = normy[pos];
-					beta = Math.atan2(ny, nx);
-					if (beta < 0.0)
-						beta += 2.0 * Math.PI;
-					if (beta >= Math.PI)
-						beta -= Math.PI;
-					diff1 = Math.abs(beta - last_beta);
-					if (diff1 >= Math.PI)
-						diff1 = 2.0 * Math.PI - diff1;
-					diff2 = Math.abs(beta + Math.PI - last_beta);
-					if (diff2 >= Math.PI)
-						diff2 = 2.0 * Math.PI - diff2;
-					if (diff1 < diff2) {
-						angle[num_pnt] = (float) beta;
-						last_beta = beta;
-					} else {
-						angle[num_pnt] = (float) (beta + Math.PI);
-						last_beta = beta + Math.PI;
-					}
-
-					resp[num_pnt] = (float) interpolate_response(eigval, x, y, posx[pos], posy[pos], width, height);
-					num_pnt++;
-
-					/*
-					 * If the appropriate neighbor is already processed a junction point is found.
-					 */
-					if (label[pos] > 0) {
-						if (num_junc >= size_junc) {
-							size_junc = (int) Math.floor((double) (size_junc * LinesUtil.REALLOC_FACTOR));
-							Junction[] junch = new Junction[size_junc];
-							for (int o = 0; o < junch.length; o++) {
-								if (o < junc.length)
-									junch[o] = junc[o];
-								else
-									junch[o] = new Junction();
-							}
-							junc = junch;
-						}
-						/* Look for the junction point in the other line. */
-						k = label[pos] - 1;
-						if (k == num_cont) {
-							/* Line intersects itself. */
-							for (j = 0; j < num_pnt - 1; j++) {
-								if (row[j] == posx[pos] && col[j] == posy[pos]) {
-									if (j == 0) {
-										/* Contour is closed. */
-										cls = LinesUtil.contour_class.cont_closed;
-										for (i = 0; i < num_pnt / 2; i++) {
-											tmp = row[i];
-											row[i] = row[(num_pnt - 1 - i)];
-											row[(num_pnt - 1 - i)] = tmp;
-											tmp = col[i];
-											col[i] = col[(num_pnt - 1 - i)];
-											col[(num_pnt - 1 - i)] = tmp;
-											tmp = angle[i];
-											angle[i] = angle[(num_pnt - 1 - i)];
-											angle[(num_pnt - 1 - i)] = tmp;
-											tmp = resp[i];
-											resp[i] = resp[(num_pnt - 1 - i)];
-											resp[(num_pnt - 1 - i)] = tmp;
-										}
-										it = 2;
-									} else {
-										if (it == 2) {
-											/* Determine contour class. */
-											if (cls == LinesUtil.contour_class.cont_start_junc)
-												cls = LinesUtil.contour_class.cont_both_junc;
-											else
-												cls = LinesUtil.contour_class.cont_end_junc;
-											/* Index j is the correct index. */
-											junc[num_junc].cont1 = num_cont;
-											junc[num_junc].cont2 = num_cont;
-											junc[num_junc].pos = j;
-											junc[num_junc].x = posx[pos];
-											junc[num_junc].y = posy[pos];
-											num_junc++;
-										} else {
-											/* Determine contour class. */
-											cls = LinesUtil.contour_class.cont_start_junc;
-											/*
-											 * Index num_pnt-1-j is the correct index since the line is going to be
-											 * sorted in reverse.
-											 */
-											junc[num_junc].cont1 = num_cont;
-											junc[num_junc].cont2 = num_cont;
-											junc[num_junc].pos = num_pnt - 1 - j;
-											junc[num_junc].x = posx[pos];
-											junc[num_junc].y = posy[pos];
-											num_junc++;
-										}
-									}
-									break;
-								}
-							}
-							/*
-							 * Mark this case as being processed for the algorithm below.
-							 */
-							j = -1;
-						} else {
+		/*
+		 * Number the lines in the order of the rank of their starting points, which
+		 * is the order in which a single loop over all starting points finds them.
+		 * The table of junctions grows on every hit, like in that loop, so that it
+		 * has the same size.
+		 */
+		number = new int[area];
+		numbered = new LinkedLine[area];
+		for (i = 0; i < area; i++) {
+			number[i] = -1;
+			if (linked[i] == null)
+				continue;
+			if (num_cont >= size_cont) {
+				size_cont = (int) Math.floor((double) (size_cont * LinesUtil.REALLOC_FACTOR));
+				cont = java.util.Arrays.copyOf(cont, size_cont);
+				for (int o = num_cont; o < size_cont; o++)
+					cont[o] = new Line();
+			}
+			cont[num_cont] = new Line();
 
-							for (j = 0; j < cont[k].num; j++) {
-								if (cont[k].row[j] == posx[pos] && cont[k].col[j] == posy[pos])
-									break;
-							}
-							/*
-							 * If no point can be found on the other line a double response must have
-							 * occured. In this case, find the nearest point on the other line and add it to
-							 * the current line.
-							 */
-							if (j == cont[k].num) {
-								mindist = Double.MAX_VALUE;
-								j = -1;
-								for (l = 0; l < cont[k].num; l++) {
-									dx = posx[pos] - cont[k].row[l];
-									dy = posy[pos] - cont[k].col[l];
-									dist = Math.sqrt(dx * dx + dy * dy);
-									if (dist < mindist) {
-										mindist = dist;
-										j = l;
-									}
-								}
-								/*
-								 * Add the point with index j to the current line.
-								 */
-								if (num_pnt >= size_pnt) {
-									size_pnt = (int) Math.floor((double) (size_pnt * LinesUtil.REALLOC_FACTOR));
-									float[] newArr = new float[size_pnt];
-									for (int o = 0; o < row.length; o++) {
-										newArr[o] = row[o];
-									}
-									row = newArr;
-									newArr = new float[size_pnt];
-									for (int o = 0; o < col.length; o++) {
-										newArr[o] = col[o];
-									}
-									col = newArr;
-									newArr = new float[size_pnt];
-									for (int o = 0; o < angle.length; o++) {
-										newArr[o] = angle[o];
-									}
-									angle = newArr;
-									newArr = new float[size_pnt];
-									for (int o = 0; o < resp.length; o++) {
-										resp[o] = resp[o];
-									}
-									resp = newArr;
-								}
+			cont[num_cont].row = linked[i].row;
+			cont[num_cont].col = linked[i].col;
+			cont[num_cont].angle = linked[i].angle;
+			cont[num_cont].response = linked[i].response;
 
-								row[num_pnt] = cont[k].row[j];
-								col[num_pnt] = cont[k].col[j];
-								beta = cont[k].angle[j];
-								if (beta >= Math.PI)
-									beta -= Math.PI;
-								diff1 = Math.abs(beta - last_beta);
-								if (diff1 >= Math.PI)
-									diff1 = 2.0 * Math.PI - diff1;
-								diff2 = Math.abs(beta + Math.PI - last_beta);
-								if (diff2 >= Math.PI)
-									diff2 = 2.0 * Math.PI - diff2;
-								if (diff1 < diff2)
-									angle[num_pnt] = (float) beta;
-								else
-									angle[num_pnt] = (float) (beta + Math.PI);
-								resp[num_pnt] = cont[k].response[j];
-								num_pnt++;
-							}
-						}
-						/*
-						 * Add the junction point only if it is not one of the other line's endpoints.
-						 */
-						if (j > 0 && j < cont[k].num - 1) {
-							/* Determine contour class. */
-							if (it == 1)
-								cls = LinesUtil.contour_class.cont_start_junc;
-							else if (cls == LinesUtil.contour_class.cont_start_junc)
-								cls = LinesUtil.contour_class.cont_both_junc;
-							else
-								cls = LinesUtil.contour_class.cont_end_junc;
-							/* Add the new junction. */
-
-							junc[num_junc].cont1 = k;
-							junc[num_junc].cont2 = num_cont;
-							junc[num_junc].pos = j;
-							junc[num_junc].x = row[(num_pnt - 1)];
-							junc[num_junc].y = col[(num_pnt - 1)];
-							num_junc++;
-						}
-						break;
-					}
-					label[pos] = (num_cont + 1);
-					if (!(indx[pos] == 0))
-						cross[(indx[pos] - 1)].done = true;
-				}
-			}
+			cont[num_cont].width_r = null;
+			cont[num_cont].width_l = null;
+			cont[num_cont].asymmetry = null;
+			cont[num_cont].intensity = null;
+			cont[num_cont].num = linked[i].num;
+			cont[num_cont].setContourClass(linked[i].cls);
+			numbered[num_cont] = linked[i];
+			number[i] = num_cont++;
 
-			if (num_pnt > 1) {
-				/* Only add lines with at least two points. */
-				if (num_cont >= size_cont) {
-					size_cont = (int) Math.floor((double) (size_cont * LinesUtil.REALLOC_FACTOR));
-					Line[] conth = new Line[size_cont];
-					for (int o = 0; o < conth.length; o++) {
-						// true ? (conth[o] = cont[0]) : (conth[o] = new
-						// contour());
-						if (o < cont.length)
-							conth[o] = cont[o];
-						else
-							conth[o] = new Line();
-					}
-					cont = conth;
+			for (j = 0, k = 0; j < linked[i].num_hit; j++) {
+				if (num_junc >= size_junc) {
+					size_junc = (int) Math.floor((double) (size_junc * LinesUtil.REALLOC_FACTOR));
+					junc = java.util.Arrays.copyOf(junc, size_junc);
+					for (int o = num_junc; o < size_junc; o++)
+						junc[o] = new Junction();
 				}
-				cont[num_cont] = new Line();
-
-				cont[num_cont].row = java.util.Arrays.copyOf(row, num_pnt);
-				cont[num_cont].col = java.util.Arrays.copyOf(col, num_pnt);
-				cont[num_cont].angle = java.util.Arrays.copyOf(angle, num_pnt);
-				cont[num_cont].response = java.util.Arrays.copyOf(resp, num_pnt);
-
-				cont[num_cont].width_r = null;
-				cont[num_cont].width_l = null;
-				cont[num_cont].asymmetry = null;
-				cont[num_cont].intensity = null;
-				cont[num_cont].num = num_pnt;
-				cont[num_cont].setContourClass(cls);
-				num_cont++;
-			} else {
-				/*
-				 * Delete the point from the label image; we can use maxx and maxy as the
-				 * coordinates in the label image in this case.
-				 */
-				for (i = -1; i <= 1; i++) {
-					for (j = -1; j <= 1; j++) {
-						pos = LinesUtil.LINCOOR(LinesUtil.BR(maxx + i, height), LinesUtil.BC(maxy + j, width), width);
-						if (label[pos] == num_cont + 1)
-							label[pos] = 0;
-					}
+				if (linked[i].hit[j]) {
+					junc[num_junc] = linked[i].junc[k++];
+					junc[num_junc].cont1 = number[junc[num_junc].cont1];
+					junc[num_junc].cont2 = number[junc[num_junc].cont2];
+					num_junc++;
 				}
 			}
 		}
 
+		/* Replace the ranks in the labels by the numbers of the lines. */
+		for (i = 0; i < points.getNum(); i++) {
+			if (label[i] > 0)
+				label[i] = number[label[i] - 1] + 1;
+		}
+
 		/*
 		 * Now try to extend the lines at their ends to find additional junctions.
+		 * The ends are searched in parallel, and the extensions are added in the
+		 * order of the lines, since the point at which a line is hit is searched
+		 * on that line as extended so far.
 		 */
 		if (extend_lines) {
-			/* Sign by which the gradient has to be multiplied below. */
-			if (mode == LinesUtil.MODE_LIGHT)
-				s = 1;
-			else
-				s = -1;
-			double MAX_LINE_EXTENSION = 2.5 * sigma;
-			length = MAX_LINE_EXTENSION;
-			max_line = (int) Math.ceil(length * 3);
-			line = new Offset[max_line];
-			for (int o = 0; o < line.length; o++) {
-				line[o] = new Offset();
-			}
-			extx = new float[max_line];
-			exty = new float[max_line];
+			final LineExtension[] ext = new LineExtension[2 * num_cont];
+			final Line[] fcont = cont;
+			final float[] fgradx = gradx, fgrady = grady;
+			final double fsigma = sigma;
+			final int fmode = mode;
+			BandExecutor.execute(pool, 0, num_cont, new BandExecutor.Band() {
+				@Override
+				public void process(int from, int to) {
+					search_extensions(fpoints, fcont, from, to, fgradx, fgrady, flabel, fsigma, fmode, ext, fwidth,
+							fheight);
+				}
+			});
+			/* Number of points the extension added at the start and end of each line. */
+			ext_start = new int[num_cont];
+			ext_end = new int[num_cont];
 			for (i = 0; i < num_cont; i++) {
 				tmp_cont = cont[i];
-				num_pnt = tmp_cont.num;
-				if (num_pnt == 1)
-					continue;
-				if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_closed)
-					continue;
-				trow = tmp_cont.row;
-				tcol = tmp_cont.col;
-				tangle = tmp_cont.angle;
-				tresp = tmp_cont.response;
-				/* Check both ends of the line (it==-1: start, it==1: end). */
+				/* Add the extensions of the start (it==-1) and the end (it==1). */
 				for (it = -1; it <= 1; it += 2) {
+					extension = ext[2 * i + (it + 1) / 2];
+					if (extension == null)
+						continue;
+					m = extension.line;
+					/* Search for the junction point on the other line. */
+					j = find_line_point(cont[m].row, cont[m].col, cont[m].num, numbered[m], ext_start[m], ext_end[m],
+							points, point, extension.px, extension.py, 3.0, spread, width, height);
 					/*
-					 * Determine the direction of the search line. This is done by using the normal
-					 * to the line (angle). Since this normal may point to the left of the line (see
-					 * below) we have to check for this case by comparing the normal to the
-					 * direction of the line at its respective end point.
+					 * This should not happen... But better safe than sorry...
 					 */
+					if (j < 0)
+						continue;
+					num_pnt = tmp_cont.num;
+					num_add = extension.num;
+					extx = extension.row;
+					exty = extension.col;
+					alpha = extension.alpha;
+					response = extension.response;
+					extx[num_add] = cont[m].row[j];
+					exty[num_add] = cont[m].col[j];
+					end_resp = cont[m].response[j];
+					end_angle = cont[m].angle[j];
+					beta = end_angle;
+					if (beta >= Math.PI)
+						beta -= Math.PI;
+					diff1 = Math.abs(beta - alpha);
+					if (diff1 >= Math.PI)
+						diff1 = 2.0 * Math.PI - diff1;
+					diff2 = Math.abs(beta + Math.PI - alpha);
+					if (diff2 >= Math.PI)
+						diff2 = 2.0 * Math.PI - diff2;
+					if (diff1 < diff2)
+						end_angle = beta;
+					else
+						end_angle = beta + Math.PI;
+					num_add++;
+					/*
+					 * Make room for the new points: copy the line into new arrays, num_add
+					 * places up if the points are inserted at the beginning of the line.
+					 */
+					l = (it == -1) ? num_add : 0;
+					trow = new float[num_pnt + num_add];
+					tcol = new float[num_pnt + num_add];
+					tangle = new float[num_pnt + num_add];
+					tresp = new float[num_pnt + num_add];
+					System.arraycopy(tmp_cont.row, 0, trow, l, num_pnt);
+					System.arraycopy(tmp_cont.col, 0, tcol, l, num_pnt);
+					System.arraycopy(tmp_cont.angle, 0, tangle, l, num_pnt);
+					System.arraycopy(tmp_cont.response, 0, tresp, l, num_pnt);
+					num_pnt += num_add;
+
+					tmp_cont.row = trow;
+					tmp_cont.col = tcol;
+					tmp_cont.angle = tangle;
+					tmp_cont.response = tresp;
+					tmp_cont.num = num_pnt;
 					if (it == -1) {
-						/* Start point of the line. */
-						if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_start_junc
-								|| tmp_cont.getContourClass() == LinesUtil.contour_class.cont_both_junc)
-							continue;
-						dx = trow[1] - trow[0];
-						dy = tcol[1] - tcol[0];
-						alpha = tangle[0];
-						nx = Math.cos(alpha);
-						ny = Math.sin(alpha);
-						if (nx * dy - ny * dx < 0) {
-							/* Turn the normal by +90 degrees. */
-							mx = -ny;
-							my = nx;
-						} else {
-							/* Turn the normal by -90 degrees. */
-							mx = ny;
-							my = -nx;
+						/* Insert points at the beginning of the line. */
+						for (k = 0; k < num_add; k++) {
+							trow[k] = extx[(num_add - 1 - k)];
+							tcol[k] = exty[(num_add - 1 - k)];
+							tangle[k] = (float) alpha;
+							tresp[k] = (float) response;
+						}
+						tangle[0] = (float) end_angle;
+						tresp[0] = (float) end_resp;
+						ext_start[i] += num_add;
+						/* Adapt indices of the previously found junctions. */
+						for (k = 0; k < num_junc; k++) {
+							if (junc[k].cont1 == i)
+								junc[k].pos += num_add;
 						}
-						px = trow[0];
-						py = tcol[0];
-						response = tresp[0];
 					} else {
-						/* End point of the line. */
-						if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_end_junc
-								|| tmp_cont.getContourClass() == LinesUtil.contour_class.cont_both_junc)
-							continue;
-						dx = trow[(num_pnt - 1)] - trow[(num_pnt - 2)];
-						dy = tcol[(num_pnt - 1)] - tcol[(num_pnt - 2)];
-						alpha = tangle[(num_pnt - 1)];
-						nx = Math.cos(alpha);
-						ny = Math.sin(alpha);
-						if (nx * dy - ny * dx < 0) {
-							/* Turn the normal by -90 degrees. */
-							mx = ny;
-							my = -nx;
-						} else {
-							/* Turn the normal by +90 degrees. */
-							mx = -ny;
-							my = nx;
+						/* Insert points at the end of the line. */
+						for (k = 0; k < num_add; k++) {
+							trow[(num_pnt - num_add + k)] = extx[k];
+							tcol[(num_pnt - num_add + k)] = exty[k];
+							tangle[(num_pnt - num_add + k)] = (float) alpha;
+							tresp[(num_pnt - num_add + k)] = (float) response;
 						}
-						px = trow[(num_pnt - 1)];
-						py = tcol[(num_pnt - 1)];
-						response = tresp[(num_pnt - 1)];
+						tangle[(num_pnt - 1)] = (float) end_angle;
+						tresp[(num_pnt - 1)] = (float) end_resp;
+						ext_end[i] += num_add;
+					}
+					/* If necessary, make room for the new junction. */
+					if (num_junc >= size_junc) {
+						size_junc = (int) Math.floor((double) (size_junc * LinesUtil.REALLOC_FACTOR));
+						junc = java.util.Arrays.copyOf(junc, size_junc);
+						for (int o = num_junc; o < size_junc; o++)
+							junc[o] = new Junction();
 					}
 					/*
-					 * Determine the current pixel and calculate the pixels on the search line.
-					 */
-					x = (int) Math.floor(px + 0.5);
-					y = (int) Math.floor(py + 0.5);
-					dx = px - x;
-					dy = py - y;
-					w.bresenham(mx, my, dx, dy, length, line, num_line);
-					/*
-					 * Now determine whether we can go only uphill (bright lines) or downhill (dark
-					 * lines) until we hit another line.
+					 * Add the junction point only if it is not one of the other line's endpoints.
 					 */
-					num_add = 0;
-					add_ext = false;
-					for (k = 0; k < num_line.intValue(); k++) {
-						nextx = x + line[k].x;
-						nexty = y + line[k].y;
-						MutableDouble hnextpx = new MutableDouble(nextpx);
-						MutableDouble hnextpy = new MutableDouble(nextpy);
-						closest_point(px, py, mx, my, (double) nextx, (double) nexty, hnextpx, hnextpy, t);
-						nextpx = hnextpx.getValue();
-						nextpy = hnextpy.getValue();
-						/*
-						 * Ignore points before or less than half a pixel away from the true end point
-						 * of the line.
-						 */
-						if (t.getValue() <= 0.5)
-							continue;
-						/*
-						 * Stop if the gradient can't be interpolated any more or if the next point lies
-						 * outside the image.
-						 */
-						if (nextpx < 0 || nextpy < 0 || nextpx >= height - 1 || nextpy >= width - 1 || nextx < 0
-								|| nexty < 0 || nextx >= height || nexty >= width)
-							break;
-						MutableDouble hgx = new MutableDouble();
-						MutableDouble hgy = new MutableDouble();
-						interpolate_gradient(gradx, grady, nextpx, nextpy, width, hgx, hgy);
-						gx = hgx.getValue();
-						gy = hgy.getValue();
-						/*
-						 * Stop if we can't go uphill anymore. This is determined by the dot product of
-						 * the line direction and the gradient. If it is smaller than 0 we go downhill
-						 * (reverse for dark lines).
-						 */
-						nextpos = LinesUtil.LINCOOR(nextx, nexty, width);
-						if (s * (mx * gx + my * gy) < 0 && label[nextpos] == 0)
-							break;
-						/* Have we hit another line? */
-						if (label[nextpos] > 0) {
-							m = label[nextpos] - 1;
-							/* Search for the junction point on the other line. */
-							mindist = Double.MAX_VALUE;
-							j = -1;
-							for (l = 0; l < cont[m].num; l++) {
-								dx = nextpx - cont[m].row[l];
-								dy = nextpy - cont[m].col[l];
-								dist = Math.sqrt(dx * dx + dy * dy);
-								if (dist < mindist) {
-									mindist = dist;
-									j = l;
-								}
-							}
-							/*
-							 * This should not happen... But better safe than sorry...
-							 */
-							if (mindist > 3.0) {
-								break;
-							}
-							extx[num_add] = cont[m].row[j];
-							exty[num_add] = cont[m].col[j];
-							end_resp = cont[m].response[j];
-							end_angle = cont[m].angle[j];
-							beta = end_angle;
-							if (beta >= Math.PI)
-								beta -= Math.PI;
-							diff1 = Math.abs(beta - alpha);
-							if (diff1 >= Math.PI)
-								diff1 = 2.0 * Math.PI - diff1;
-							diff2 = Math.abs(beta + Math.PI - alpha);
-							if (diff2 >= Math.PI)
-								diff2 = 2.0 * Math.PI - diff2;
-							if (diff1 < diff2)
-								end_angle = beta;
+					if (j > 0 && j < cont[m].num - 1) {
+						if (it == -1) {
+							if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_end_junc)
+								tmp_cont.setContourClass(LinesUtil.contour_class.cont_both_junc);
 							else
-								end_angle = beta + Math.PI;
-							num_add++;
-							add_ext = true;
-							break;
+								tmp_cont.setContourClass(LinesUtil.contour_class.cont_start_junc);
 						} else {
-							extx[num_add] = (float) nextpx;
-							exty[num_add] = (float) nextpy;
-							num_add++;
-						}
-					}
-					if (add_ext) {
-						/* Make room for the new points. */
-						num_pnt += num_add;
-						float[] newArr = new float[num_pnt];
-						for (int o = 0; o < trow.length; o++) {
-							newArr[o] = trow[o];
-						}
-						trow = newArr;
-
-						newArr = new float[num_pnt];
-						for (int o = 0; o < tcol.length; o++) {
-							newArr[o] = tcol[o];
-						}
-						tcol = newArr;
-
-						newArr = new float[num_pnt];
-						for (int o = 0; o < tangle.length; o++) {
-							newArr[o] = tangle[o];
-						}
-						tangle = newArr;
-
-						newArr = new float[num_pnt];
-						for (int o = 0; o < tresp.length; o++) {
-							newArr[o] = tresp[o];
+							if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_start_junc)
+								tmp_cont.setContourClass(LinesUtil.contour_class.cont_both_junc);
+							else
+								tmp_cont.setContourClass(LinesUtil.contour_class.cont_end_junc);
 						}
-						tresp = newArr;
-
-						tmp_cont.row = trow;
-						tmp_cont.col = tcol;
-						tmp_cont.angle = tangle;
-						tmp_cont.response = tresp;
-						tmp_cont.num = num_pnt;
+						junc[num_junc].cont1 = m;
+						junc[num_junc].cont2 = i;
+						junc[num_junc].pos = j;
 						if (it == -1) {
-							/* Move points on the line up num_add places. */
-							for (k = num_pnt - 1 - num_add; k >= 0; k--) {
-								trow[(k + num_add)] = trow[k];
-								tcol[(k + num_add)] = tcol[k];
-								tangle[(k + num_add)] = tangle[k];
-								tresp[(k + num_add)] = tresp[k];
-							}
-							/* Insert points at the beginning of the line. */
-							for (k = 0; k < num_add; k++) {
-								trow[k] = extx[(num_add - 1 - k)];
-								tcol[k] = exty[(num_add - 1 - k)];
-								tangle[k] = (float) alpha;
-								tresp[k] = (float) response;
-							}
-							tangle[0] = (float) end_angle;
-							tresp[0] = (float) end_resp;
-							/* Adapt indices of the previously found junctions. */
-							for (k = 0; k < num_junc; k++) {
-								if (junc[k].cont1 == i)
-									junc[k].pos += num_add;
-							}
+							junc[num_junc].x = trow[0];
+							junc[num_junc].y = tcol[0];
 						} else {
-							/* Insert points at the end of the line. */
-							for (k = 0; k < num_add; k++) {
-								trow[(num_pnt - num_add + k)] = extx[k];
-								tcol[(num_pnt - num_add + k)] = exty[k];
-								tangle[(num_pnt - num_add + k)] = (float) alpha;
-								tresp[(num_pnt - num_add + k)] = (float) response;
-							}
-							tangle[(num_pnt - 1)] = (float) end_angle;
-							tresp[(num_pnt - 1)] = (float) end_resp;
-						}
-						/* If necessary, make room for the new junction. */
-						if (num_junc >= size_junc) {
-							size_junc = (int) Math.floor((double) (size_junc * LinesUtil.REALLOC_FACTOR));
-							Junction[] junch = new Junction[size_junc];
-							for (int o = 0; o < junch.length; o++) {
-								if (o < junc.length)
-									junch[o] = junc[o];
-								else
-									junch[o] = new Junction();
-							}
-							junc = junch;
-
-						}
-						/*
-						 * Add the junction point only if it is not one of the other line's endpoints.
-						 */
-						if (j > 0 && j < cont[m].num - 1) {
-							if (it == -1) {
-								if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_end_junc)
-									tmp_cont.setContourClass(LinesUtil.contour_class.cont_both_junc);
-								else
-									tmp_cont.setContourClass(LinesUtil.contour_class.cont_start_junc);
-							} else {
-								if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_start_junc)
-									tmp_cont.setContourClass(LinesUtil.contour_class.cont_both_junc);
-								else
-									tmp_cont.setContourClass(LinesUtil.contour_class.cont_end_junc);
-							}
-							junc[num_junc].cont1 = m;
-							junc[num_junc].cont2 = i;
-							junc[num_junc].pos = j;
-							if (it == -1) {
-								junc[num_junc].x = trow[0];
-								junc[num_junc].y = tcol[0];
-							} else {
-								junc[num_junc].x = trow[(num_pnt - 1)];
-								junc[num_junc].y = tcol[(num_pnt - 1)];
-							}
-							num_junc++;
+							junc[num_junc].x = trow[(num_pnt - 1)];
+							junc[num_junc].y = tcol[(num_pnt - 1)];
 						}
+						num_junc++;
 					}
 				}
-
 			}
 		}
 
@@ -1158,7 +672,7 @@ public class Link {
 			tmp_cont = cont[j];
 			num_pnt = tmp_cont.num;
 			/* Count how often line j needs to be split. */
-			for (k = 0; junc[(i + k)].cont1 == j && i + k < num_junc; k++)
+			for (k = 0; i + k < num_junc && junc[(i + k)].cont1 == j; k++)
 				;
 
 			if (k == 1 && tmp_cont.row[0] == tmp_cont.row[(num_pnt - 1)]
@@ -1207,11 +721,7 @@ public class Link {
 					}
 					if (num_cont >= size_cont) {
 						size_cont = (int) Math.floor((double) (size_cont * LinesUtil.REALLOC_FACTOR));
-						Line[] conth = new Line[size_cont];
-						for (int o = 0; o < cont.length; o++) {
-							conth[o] = cont[o];
-						}
-						cont = conth;
+						cont = java.util.Arrays.copyOf(cont, size_cont);
 					}
 					cont[num_cont] = new Line();
 
@@ -1306,4 +816,777 @@ public class Link {
 		num_result.setValue(num_cont);
 	}
 
+	/**
+	 * Link components.
+	 *
+	 * @param points
+	 *            the line points
+	 * @param seeds
+	 *            the slots of the starting points, sorted by decreasing response
+	 * @param comp_start
+	 *            the index of the first starting point of each component in
+	 *            comp_seeds
+	 * @param comp_seeds
+	 *            the ranks of the starting points, grouped by component
+	 * @param from
+	 *            the first component
+	 * @param to
+	 *            the component after the last component
+	 * @param done
+	 *            the done
+	 * @param label
+	 *            the label of each line point
+	 * @param indx
+	 *            the rank + 1 of each line point that can start a line
+	 * @param point
+	 *            the order + 1 in which a line added each line point
+	 * @param spread
+	 *            the largest distance of a line point from its pixel
+	 * @param linked
+	 *            the lines, indexed by the rank of their starting point
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 */
+	/*
+	 * Link the lines of the components [from,to). The starting points of each
+	 * component are taken in the order of their rank, so a component is linked
+	 * exactly as by a single loop over all starting points. Only pixels of the
+	 * component are written. A line is labelled with the rank of its starting
+	 * point + 1, and its junctions refer to lines by rank, since the numbers of
+	 * the lines are only known after all components are linked. The order in which
+	 * a line adds its points is also recorded in point, so that the junction point
+	 * on the line that is hit is found without a search along the line.
+	 */
+	private void link_components(LinePoints points, int[] seeds, int[] comp_start, int[] comp_seeds, int from,
+			int to, boolean[] done, int[] label, int[] indx, int[] point, double spread, LinkedLine[] linked, int width,
+			int height) {
+		int i = 0, j = 0, k, l, it, pos, nextpos, nexti;
+		int x, y;
+		int octant, last_octant;
+		int num_junc;
+		ContourBuffer pnt = new ContourBuffer();
+		float[] eigval = points.getEv();
+		float[] normx = points.getNx();
+		float[] normy = points.getNy();
+		float[] posx = points.getPx();
+		float[] posy = points.getPy();
+		float[] interp = points.getResp();
+		double[] angle = points.getAlpha();
+		int[] index = points.getIndex();
+		int sp, ns, c, m, rank;
+		LinkedLine line;
+		Junction junction;
+		LinesUtil.contour_class cls;
+		double max;
+		int maxx, maxy;
+		int nextx, nexty;
+		double nx, ny;
+		double alpha, nextalpha, diff, mindiff, dist, mindist;
+		double beta, last_beta, diff1, diff2;
+		double px, py, nextpx = 0, nextpy = 0;
+		double dx, dy;
+		boolean nextismax;
+
+		for (c = from; c < to; c++) {
+			for (m = comp_start[c]; m < comp_start[c + 1]; m++) {
+				/* Skip starting points that are already part of a line. */
+				rank = comp_seeds[m];
+				if (done[rank])
+					continue;
+				/*
+				 * Contour class unknown at this point; therefore assume both ends free.
+				 */
+				cls = LinesUtil.contour_class.cont_no_junc;
+				line = new LinkedLine();
+				max = eigval[seeds[rank]];
+				maxx = index[seeds[rank]] / width;
+				maxy = index[seeds[rank]] % width;
+				if (max == 0.0)
+					break;
+
+				/* Add starting point to the line. */
+				pnt.clear();
+				pos = LinesUtil.LINCOOR(maxx, maxy, width);
+				sp = points.slot(pos);
+				label[sp] = (rank + 1);
+				if (!(indx[sp] == 0))
+					done[indx[sp] - 1] = true;
+				/* Select line direction. */
+				alpha = angle[sp];
+				octant = LinePoints.octant(alpha);
+				/*
+				 * Select normal to the line. The normal points to the right of the line as the
+				 * line is traversed from 0 to num-1. Since the points are sorted in reverse
+				 * order before the second iteration, the first beta actually has to point to
+				 * the left of the line!
+				 */
+				beta = alpha + Math.PI / 2.0;
+				if (beta >= 2.0 * Math.PI)
+					beta -= 2.0 * Math.PI;
+				pnt.add(posx[sp], posy[sp], (float) beta, interp[sp]);
+				point[sp] = pnt.num;
+				/* Mark double responses as processed. */
+				for (i = 0; i < 2; i++) {
+					nextx = maxx + cleartab[octant][i][0];
+					nexty = maxy + cleartab[octant][i][1];
+					if (nextx < 0 || nextx >= height || nexty < 0 || nexty >= width)
+						continue;
+					nextpos = LinesUtil.LINCOOR(nextx, nexty, width);
+					ns = points.slot(nextpos);
+					if (ns >= 0) {
+						nextalpha = angle[ns];
+						diff = Math.abs(alpha - nextalpha);
+						if (diff >= Math.PI / 2.0)
+							diff = Math.PI - diff;
+						if (diff < MAX_ANGLE_DIFFERENCE) {
+							label[ns] = (rank + 1);
+							if (!(indx[ns] == 0))
+								done[indx[ns] - 1] = true;
+						}
+					}
+				}
+
+				for (it = 1; it <= 2; it++) {
+					if (it == 1) {
+						/*
+						 * Search along the initial line direction in the first iteration.
+						 */
+						x = maxx;
+						y = maxy;
+						pos = LinesUtil.LINCOOR(x, y, width);
+						sp = points.slot(pos);
+						alpha = angle[sp];
+						last_octant = LinePoints.octant(alpha);
+						last_beta = alpha + Math.PI / 2.0;
+						if (last_beta >= 2.0 * Math.PI)
+							last_beta -= 2.0 * Math.PI;
+					} else {
+						/* Search in the opposite direction in the second iteration. */
+						x = maxx;
+						y = maxy;
+						pos = LinesUtil.LINCOOR(x, y, width);
+						sp = points.slot(pos);
+						alpha = angle[sp];
+						last_octant = LinePoints.octant(alpha) + 4;
+						last_beta = alpha + Math.PI / 2.0;
+						if (last_beta >= 2.0 * Math.PI)
+							last_beta -= 2.0 * Math.PI;
+					}
+					if (it == 2) {
+						/* Sort the points found in the first iteration in reverse. */
+						pnt.reverse();
+						line.first = pnt.num;
+					}
+
+					/* Now start adding appropriate neighbors to the line. */
+					for (;;) {
+						pos = LinesUtil.LINCOOR(x, y, width);
+						sp = points.slot(pos);
+						px = posx[sp];
+						py = posy[sp];
+						/* Orient line direction w.r.t. the last line direction. */
+						alpha = angle[sp];
+						octant = LinePoints.octant(alpha);
+						switch (octant) {
+						case 0:
+							if (last_octant >= 3 && last_octant <= 5)
+								octant = 4;
+							break;
+						case 1:
+							if (last_octant >= 4 && last_octant <= 6)
+								octant = 5;
+							break;
+						case 2:
+							if (last_octant >= 4 && last_octant <= 7)
+								octant = 6;
+							break;
+						case 3:
+							if (last_octant == 0 || last_octant >= 6)
+								octant = 7;
+							break;
+						}
+						last_octant = octant;
+
+						/* Determine appropriate neighbor. */
+						nextismax = false;
+						nexti = 1;
+						mindiff = Double.MAX_VALUE;
+						for (i = 0; i < 3; i++) {
+							nextx = x + dirtab[octant][i][0];
+							nexty = y + dirtab[octant][i][1];
+							if (nextx < 0 || nextx >= height || nexty < 0 || nexty >= width)
+								continue;
+							nextpos = LinesUtil.LINCOOR(nextx, nexty, width);
+							ns = points.slot(nextpos);
+							if (ns < 0)
+								continue;
+							nextpx = posx[ns];
+							nextpy = posy[ns];
+							dx = nextpx - px;
+							dy = nextpy - py;
+							dist = Math.sqrt(dx * dx + dy * dy);
+							nextalpha = angle[ns];
+							diff = Math.abs(alpha - nextalpha);
+							if (diff >= Math.PI / 2.0)
+								diff = Math.PI - diff;
+							diff = dist + diff;
+							if (diff < mindiff) {
+								mindiff = diff;
+								nexti = i;
+							}
+							if (ns >= 0)
+								nextismax = true;
+						}
+
+						/* Mark double responses as processed. */
+						for (i = 0; i < 2; i++) {
+							nextx = x + cleartab[octant][i][0];
+							nexty = y + cleartab[octant][i][1];
+							if (nextx < 0 || nextx >= height || nexty < 0 || nexty >= width)
+								continue;
+							nextpos = LinesUtil.LINCOOR(nextx, nexty, width);
+							ns = points.slot(nextpos);
+							if (ns >= 0) {
+								nextalpha = angle[ns];
+								diff = Math.abs(alpha - nextalpha);
+								if (diff >= Math.PI / 2.0)
+									diff = Math.PI - diff;
+								if (diff < MAX_ANGLE_DIFFERENCE) {
+									label[ns] = (rank + 1);
+									if (!(indx[ns] == 0))
+										done[indx[ns] - 1] = true;
+								}
+							}
+						}
+
+						/* Have we found the end of the line? */
+						if (!nextismax)
+							break;
+						/* If not, add the neighbor to the line. */
+						x += dirtab[octant][nexti][0];
+						y += dirtab[octant][nexti][1];
+						pos = LinesUtil.LINCOOR(x, y, width);
+						sp = points.slot(pos);
+
+						/*
+						 * Orient normal to the line direction w.r.t. the last normal.
+						 */
+						nx = normx[sp];
+						ny = normy[sp];
+						beta = Math.atan2(ny, nx);
+						if (beta < 0.0)
+							beta += 2.0 * Math.PI;
+						if (beta >= Math.PI)
+							beta -= Math.PI;
+						diff1 = Math.abs(beta - last_beta);
+						if (diff1 >= Math.PI)
+							diff1 = 2.0 * Math.PI - diff1;
+						diff2 = Math.abs(beta + Math.PI - last_beta);
+						if (diff2 >= Math.PI)
+							diff2 = 2.0 * Math.PI - diff2;
+						if (diff1 < diff2)
+							last_beta = beta;
+						else
+							last_beta = beta + Math.PI;
+						pnt.add(posx[sp], posy[sp], (float) last_beta, interp[sp]);
+
+						/*
+						 * If the appropriate neighbor is already processed a junction point is found.
+						 */
+						if (label[sp] > 0) {
+							num_junc = line.num_junc;
+							/* Look for the junction point in the other line. */
+							k = label[sp] - 1;
+							if (k == rank) {
+								/* Line intersects itself. */
+								j = find_line_point(pnt.row, pnt.col, pnt.num - 1, line, 0, 0, points, point, posx[sp],
+										posy[sp], 0.0, spread, width, height);
+								if (j >= 0) {
+									if (j == 0) {
+										/* Contour is closed. */
+										cls = LinesUtil.contour_class.cont_closed;
+										pnt.reverse();
+										if (it == 1)
+											line.first = pnt.num;
+										else
+											line.flipped = true;
+										it = 2;
+									} else {
+										if (it == 2) {
+											/* Determine contour class. */
+											if (cls == LinesUtil.contour_class.cont_start_junc)
+												cls = LinesUtil.contour_class.cont_both_junc;
+											else
+												cls = LinesUtil.contour_class.cont_end_junc;
+											/* Index j is the correct index. */
+											junction = new Junction();
+											junction.cont1 = rank;
+											junction.cont2 = rank;
+											junction.pos = j;
+											junction.x = posx[sp];
+											junction.y = posy[sp];
+											line.junc[line.num_junc++] = junction;
+										} else {
+											/* Determine contour class. */
+											cls = LinesUtil.contour_class.cont_start_junc;
+											/*
+											 * Index num-1-j is the correct index since the line is going to be
+											 * sorted in reverse.
+											 */
+											junction = new Junction();
+											junction.cont1 = rank;
+											junction.cont2 = rank;
+											junction.pos = pnt.num - 1 - j;
+											junction.x = posx[sp];
+											junction.y = posy[sp];
+											line.junc[line.num_junc++] = junction;
+										}
+									}
+								}
+								/*
+								 * Mark this case as being processed for the algorithm below.
+								 */
+								j = -1;
+							} else {
+
+								j = find_line_point(linked[k].row, linked[k].col, linked[k].num, linked[k], 0, 0, points,
+										point, posx[sp], posy[sp], 0.0, spread, width, height);
+								/*
+								 * If no point can be found on the other line a double response must have
+								 * occured. In this case, find the nearest point on the other line and add it to
+								 * the current line.
+								 */
+								if (j < 0) {
+									mindist = Double.MAX_VALUE;
+									j = -1;
+									for (l = 0; l < linked[k].num; l++) {
+										dx = posx[sp] - linked[k].row[l];
+										dy = posy[sp] - linked[k].col[l];
+										dist = Math.sqrt(dx * dx + dy * dy);
+										if (dist < mindist) {
+											mindist = dist;
+											j = l;
+										}
+									}
+									/*
+									 * Add the point with index j to the current line.
+									 */
+									beta = linked[k].angle[j];
+									if (beta >= Math.PI)
+										beta -= Math.PI;
+									diff1 = Math.abs(beta - last_beta);
+									if (diff1 >= Math.PI)
+										diff1 = 2.0 * Math.PI - diff1;
+									diff2 = Math.abs(beta + Math.PI - last_beta);
+									if (diff2 >= Math.PI)
+										diff2 = 2.0 * Math.PI - diff2;
+									if (diff1 >= diff2)
+										beta += Math.PI;
+									pnt.add(linked[k].row[j], linked[k].col[j], (float) beta, linked[k].response[j]);
+								}
+							}
+							/*
+							 * Add the junction point only if it is not one of the other line's endpoints.
+							 */
+							if (j > 0 && j < linked[k].num - 1) {
+								/* Determine contour class. */
+								if (it == 1)
+									cls = LinesUtil.contour_class.cont_start_junc;
+								else if (cls == LinesUtil.contour_class.cont_start_junc)
+									cls = LinesUtil.contour_class.cont_both_junc;
+								else
+									cls = LinesUtil.contour_class.cont_end_junc;
+								/* Add the new junction. */
+
+								junction = new Junction();
+								junction.cont1 = k;
+								junction.cont2 = rank;
+								junction.pos = j;
+								junction.x = pnt.row[(pnt.num - 1)];
+								junction.y = pnt.col[(pnt.num - 1)];
+								line.junc[line.num_junc++] = junction;
+							}
+							line.hit[line.num_hit++] = line.num_junc > num_junc;
+							break;
+						}
+						label[sp] = (rank + 1);
+						point[sp] = pnt.num;
+						if (!(indx[sp] == 0))
+							done[indx[sp] - 1] = true;
+					}
+				}
+
+				if (pnt.num > 1) {
+					/* Only add lines with at least two points. */
+					pnt.hand_off(line);
+					line.cls = cls;
+					linked[rank] = line;
+				} else {
+					/*
+					 * Delete the point from the labels; we can use maxx and maxy as the
+					 * coordinates in the image in this case.
+					 */
+					for (i = -1; i <= 1; i++) {
+						for (j = -1; j <= 1; j++) {
+							pos = LinesUtil.LINCOOR(LinesUtil.BR(maxx + i, height), LinesUtil.BC(maxy + j, width), width);
+							ns = points.slot(pos);
+							if (ns >= 0 && label[ns] == rank + 1)
+								label[ns] = 0;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Search extensions.
+	 *
+	 * @param points
+	 *            the line points
+	 * @param cont
+	 *            the lines
+	 * @param from
+	 *            the first line
+	 * @param to
+	 *            the line after the last line
+	 * @param gradx
+	 *            the gradx
+	 * @param grady
+	 *            the grady
+	 * @param label
+	 *            the label of each line point
+	 * @param sigma
+	 *            the sigma
+	 * @param mode
+	 *            the mode
+	 * @param ext
+	 *            the extensions of the start (2*i) and the end (2*i+1) of each
+	 *            line, null if the end does not hit another line
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 */
+	/*
+	 * Search the extensions of the ends of the lines [from,to). Starting at an end
+	 * of a line, the search follows the direction of the line for at most
+	 * 2.5*sigma, as long as it goes uphill (bright lines) or downhill (dark
+	 * lines), until it hits another line. Only the lines and the labels are
+	 * read, so the ends can be searched in parallel.
+	 */
+	private void search_extensions(LinePoints points, Line[] cont, int from, int to, float[] gradx, float[] grady,
+			int[] label, double sigma, int mode, LineExtension[] ext, int width, int height) {
+		int i, k, it, x, y, ns, nextlabel;
+		int nextx, nexty;
+		int num_pnt, max_line, num_add;
+		float[] trow, tcol;
+		float[] tangle;
+		float[] tresp;
+		Line tmp_cont;
+		LineExtension extension;
+		double nx, ny;
+		double alpha;
+		double px, py, nextpx = 0, nextpy = 0;
+		double dx, dy;
+		MutableInt num_line = new MutableInt();
+		double length, response;
+		Offset[] line;
+		double mx, my, gx, gy, s;
+		MutableDouble t = new MutableDouble();
+		MutableDouble hnextpx = new MutableDouble();
+		MutableDouble hnextpy = new MutableDouble();
+		MutableDouble hgx = new MutableDouble();
+		MutableDouble hgy = new MutableDouble();
+		float[] extx, exty;
+		Width w = new Width();
+
+		/* Sign by which the gradient has to be multiplied below. */
+		if (mode == LinesUtil.MODE_LIGHT)
+			s = 1;
+		else
+			s = -1;
+		length = 2.5 * sigma;
+		max_line = (int) Math.ceil(length * 3);
+		line = new Offset[max_line];
+		for (int o = 0; o < line.length; o++) {
+			line[o] = new Offset();
+		}
+		extx = new float[max_line];
+		exty = new float[max_line];
+		for (i = from; i < to; i++) {
+			tmp_cont = cont[i];
+			num_pnt = tmp_cont.num;
+			if (num_pnt == 1)
+				continue;
+			if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_closed)
+				continue;
+			trow = tmp_cont.row;
+			tcol = tmp_cont.col;
+			tangle = tmp_cont.angle;
+			tresp = tmp_cont.response;
+			/* Check both ends of the line (it==-1: start, it==1: end). */
+			for (it = -1; it <= 1; it += 2) {
+				/*
+				 * Determine the direction of the search line. This is done by using the normal
+				 * to the line (angle). Since this normal may point to the left of the line (see
+				 * below) we have to check for this case by comparing the normal to the
+				 * direction of the line at its respective end point.
+				 */
+				if (it == -1) {
+					/* Start point of the line. */
+					if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_start_junc
+							|| tmp_cont.getContourClass() == LinesUtil.contour_class.cont_both_junc)
+						continue;
+					dx = trow[1] - trow[0];
+					dy = tcol[1] - tcol[0];
+					alpha = tangle[0];
+					nx = Math.cos(alpha);
+					ny = Math.sin(alpha);
+					if (nx * dy - ny * dx < 0) {
+						/* Turn the normal by +90 degrees. */
+						mx = -ny;
+						my = nx;
+					} else {
+						/* Turn the normal by -90 degrees. */
+						mx = ny;
+						my = -nx;
+					}
+					px = trow[0];
+					py = tcol[0];
+					response = tresp[0];
+				} else {
+					/* End point of the line. */
+					if (tmp_cont.getContourClass() == LinesUtil.contour_class.cont_end_junc
+							|| tmp_cont.getContourClass() == LinesUtil.contour_class.cont_both_junc)
+						continue;
+					dx = trow[(num_pnt - 1)] - trow[(num_pnt - 2)];
+					dy = tcol[(num_pnt - 1)] - tcol[(num_pnt - 2)];
+					alpha = tangle[(num_pnt - 1)];
+					nx = Math.cos(alpha);
+					ny = Math.sin(alpha);
+					if (nx * dy - ny * dx < 0) {
+						/* Turn the normal by -90 degrees. */
+						mx = ny;
+						my = -nx;
+					} else {
+						/* Turn the normal by +90 degrees. */
+						mx = -ny;
+						my = nx;
+					}
+					px = trow[(num_pnt - 1)];
+					py = tcol[(num_pnt - 1)];
+					response = tresp[(num_pnt - 1)];
+				}
+				/*
+				 * Determine the current pixel and calculate the pixels on the search line.
+				 */
+				x = (int) Math.floor(px + 0.5);
+				y = (int) Math.floor(py + 0.5);
+				dx = px - x;
+				dy = py - y;
+				w.bresenham(mx, my, dx, dy, length, line, num_line);
+				/*
+				 * Now determine whether we can go only uphill (bright lines) or downhill (dark
+				 * lines) until we hit another line.
+				 */
+				num_add = 0;
+				for (k = 0; k < num_line.intValue(); k++) {
+					nextx = x + line[k].x;
+					nexty = y + line[k].y;
+					closest_point(px, py, mx, my, (double) nextx, (double) nexty, hnextpx, hnextpy, t);
+					nextpx = hnextpx.getValue();
+					nextpy = hnextpy.getValue();
+					/*
+					 * Ignore points before or less than half a pixel away from the true end point
+					 * of the line.
+					 */
+					if (t.getValue() <= 0.5)
+						continue;
+					/*
+					 * Stop if the gradient can't be interpolated any more or if the next point lies
+					 * outside the image.
+					 */
+					if (nextpx < 0 || nextpy < 0 || nextpx >= height - 1 || nextpy >= width - 1 || nextx < 0
+							|| nexty < 0 || nextx >= height || nexty >= width)
+						break;
+					interpolate_gradient(gradx, grady, nextpx, nextpy, width, hgx, hgy);
+					gx = hgx.getValue();
+					gy = hgy.getValue();
+					/*
+					 * Stop if we can't go uphill anymore. This is determined by the dot product of
+					 * the line direction and the gradient. If it is smaller than 0 we go downhill
+					 * (reverse for dark lines).
+					 */
+					ns = points.slot(LinesUtil.LINCOOR(nextx, nexty, width));
+					nextlabel = (ns >= 0) ? label[ns] : 0;
+					if (s * (mx * gx + my * gy) < 0 && nextlabel == 0)
+						break;
+					/* Have we hit another line? */
+					if (nextlabel > 0) {
+						extension = new LineExtension();
+						extension.num = num_add;
+						extension.row = java.util.Arrays.copyOf(extx, num_add + 1);
+						extension.col = java.util.Arrays.copyOf(exty, num_add + 1);
+						extension.line = nextlabel - 1;
+						extension.px = nextpx;
+						extension.py = nextpy;
+						extension.alpha = alpha;
+						extension.response = response;
+						ext[2 * i + (it + 1) / 2] = extension;
+						break;
+					} else {
+						extx[num_add] = (float) nextpx;
+						exty[num_add] = (float) nextpy;
+						num_add++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find line point.
+	 *
+	 * @param row
+	 *            the row coordinates of the line points
+	 * @param col
+	 *            the column coordinates of the line points
+	 * @param num
+	 *            the number of points to search
+	 * @param line
+	 *            the linked line the points were added to
+	 * @param start
+	 *            the number of points added at the start by the extension
+	 * @param end
+	 *            the number of points added at the end by the extension
+	 * @param point
+	 *            the order + 1 in which a line added each line point
+	 * @param px
+	 *            the px
+	 * @param py
+	 *            the py
+	 * @param maxdist
+	 *            the largest distance of the point from (px,py)
+	 * @param spread
+	 *            the largest distance of a line point from its pixel
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @return the index of the point, or -1 if no point lies within maxdist
+	 */
+	/*
+	 * Return the index of the point of a line that is closest to (px,py) and at
+	 * most maxdist away, the first one if several are equally close, like a search
+	 * along the line. With maxdist = 0 this is the first point at (px,py). Every
+	 * point of the line that was added while linking lies in a pixel within
+	 * maxdist + spread of (px,py), and point holds the order in which it was added.
+	 * The first points were reversed before the second pass, and all points if the
+	 * line was closed in the second pass, which gives the index of the point. The
+	 * points found this way may belong to another line and are therefore checked.
+	 * The other points of a line (the points at which it hit another line, and the
+	 * points added by the extension) lie at its ends and are checked directly.
+	 * Short lines are simply searched from the start.
+	 */
+	private int find_line_point(float[] row, float[] col, int num, LinkedLine line, int start, int end,
+			LinePoints points, int[] point, double px, double py, double maxdist, double spread, int width,
+			int height) {
+		int r, c, r0, r1, c0, c1, l, b, sl, best;
+		double dx, dy, dist, mindist;
+
+		r0 = Math.max((int) Math.ceil(px - maxdist - spread), 0);
+		r1 = Math.min((int) Math.floor(px + maxdist + spread), height - 1);
+		c0 = Math.max((int) Math.ceil(py - maxdist - spread), 0);
+		c1 = Math.min((int) Math.floor(py + maxdist + spread), width - 1);
+		best = -1;
+		mindist = maxdist;
+		if (r0 > r1 || c0 > c1 || num <= (r1 - r0 + 1) * (c1 - c0 + 1) + start + end + 4) {
+			for (l = 0; l < num; l++) {
+				dx = px - row[l];
+				dy = py - col[l];
+				dist = Math.sqrt(dx * dx + dy * dy);
+				if (dist < mindist || (dist == mindist && best < 0)) {
+					mindist = dist;
+					best = l;
+				}
+			}
+			return best;
+		}
+		for (r = r0; r <= r1; r++) {
+			for (c = c0; c <= c1; c++) {
+				sl = points.slot(LinesUtil.LINCOOR(r, c, width));
+				if (sl < 0 || point[sl] == 0)
+					continue;
+				b = point[sl] - 1;
+				l = (b < line.first) ? line.first - 1 - b : b;
+				if (line.flipped)
+					l = line.num - 1 - l;
+				l += start;
+				if (l < 0 || l >= num)
+					continue;
+				dx = px - row[l];
+				dy = py - col[l];
+				dist = Math.sqrt(dx * dx + dy * dy);
+				if (dist < mindist || (dist == mindist && (best < 0 || l < best))) {
+					mindist = dist;
+					best = l;
+				}
+			}
+		}
+		for (l = 0; l < num; l++) {
+			if (l == start + 2)
+				l = Math.max(l, num - end - 2);
+			dx = px - row[l];
+			dy = py - col[l];
+			dist = Math.sqrt(dx * dx + dy * dy);
+			if (dist < mindist || (dist == mindist && (best < 0 || l < best))) {
+				mindist = dist;
+				best = l;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Find.
+	 *
+	 * @param parent
+	 *            the parent of each element, an element is its own parent if it
+	 *            is the root of its set
+	 * @param i
+	 *            the element
+	 * @return the root of the set of i
+	 */
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			/* Path halving */
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Union.
+	 *
+	 * @param parent
+	 *            the parent of each element
+	 * @param i
+	 *            an element of the first set
+	 * @param j
+	 *            an element of the second set
+	 */
+	/* The smaller root becomes the root of the merged set. */
+	private static void union(int[] parent, int i, int j) {
+		i = find(parent, i);
+		j = find(parent, j);
+		if (i < j)
+			parent[j] = i;
+		else if (j < i)
+			parent[i] = j;
+	}
+
 }
@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LinkedLine.
+ */
+/*
+ * A line found by the linking of one connected component of line points,
+ * before it is numbered. Link keeps one per starting point, indexed by the
+ * rank of the starting point. The junctions refer to the lines by the rank of
+ * their starting point, and are renumbered when the lines of all components are
+ * merged. hit records for each time the line ran into a labelled pixel whether
+ * a junction was added, since the junction table grows on every hit. first and
+ * flipped map the order in which the points were added to their index.
+ */
+public class LinkedLine {
+
+	/** The num. */
+	int num; /* number of points */
+
+	/** The row. */
+	float[] row; /* row coordinates of the line points */
+
+	/** The col. */
+	float[] col; /* column coordinates of the line points */
+
+	/** The angle. */
+	float[] angle; /* angle of normal (measured from the row axis) */
+
+	/** The response. */
+	float[] response; /* response of line point (second derivative) */
+
+	/** The first. */
+	int first; /* number of points of the first pass, which are reversed */
+
+	/** The flipped. */
+	boolean flipped; /* all points reversed, since the line was closed in the second pass */
+
+	/** The cls. */
+	LinesUtil.contour_class cls; /* contour class (e.g., closed, no_junc) */
+
+	/** The junc. */
+	Junction[] junc = new Junction[2]; /* junctions found while linking this line */
+
+	/** The num junc. */
+	int num_junc;
+
+	/** The hit. */
+	boolean[] hit = new boolean[2]; /* junction added at the i-th hit */
+
+	/** The num hit. */
+	int num_hit;
+}
@@ -67,6 +67,12 @@ public class Options {
 	/** The overlap. */
 	OverlapOption overlap;
 
+	/** The filter used to compute the partial derivatives (never AUTO). */
+	DerivativeOption derivative = DerivativeOption.FIR;
+
+	/** The pyramid level, the image was reduced by 2^pyramidLevel. */
+	int pyramidLevel = 0;
+
 	/**
 	 * Instantiates a new options.
 	 *
@@ -360,4 +366,32 @@ public class Options {
 	public void setOverlapResolution(OverlapOption overlap) {
 		this.overlap = overlap;
 	}
+
+	/**
+	 * Gets the derivative filter.
+	 *
+	 * @return the filter used to compute the partial derivatives
+	 */
+	public DerivativeOption getDerivativeFilter() {
+		return derivative;
+	}
+
+	/**
+	 * Sets the derivative filter.
+	 *
+	 * @param derivative
+	 *            the filter used to compute the partial derivatives
+	 */
+	public void setDerivativeFilter(DerivativeOption derivative) {
+		this.derivative = derivative;
+	}
+
+	/**
+	 * Gets the pyramid level.
+	 *
+	 * @return the pyramid level, 0 if the lines were detected at full resolution
+	 */
+	public int getPyramidLevel() {
+		return pyramidLevel;
+	}
 }
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class PaddedImage.
+ */
+/*
+ * An image with a border of pad pixels on each side that holds the mirrored
+ * gray values of the image, in the same way as LinesUtil.BR and LinesUtil.BC
+ * mirror them. The border is filled once when the image is set, so a kernel
+ * with a radius of at most pad can index the neighbours of every pixel
+ * directly, without mirroring each access and without separate loops for the
+ * pixels at the border of the image. The pixel (r,c) of the image is stored at
+ * data[(r+pad)*stride+c+pad] with stride = width+2*pad.
+ */
+public class PaddedImage {
+
+	/** The data. */
+	private float[] data;
+
+	/** The width. */
+	private int width;
+
+	/** The height. */
+	private int height;
+
+	/** The pad. */
+	private int pad;
+
+	/** The stride. */
+	private int stride;
+
+	/**
+	 * Instantiates a new padded image.
+	 *
+	 * @param data
+	 *            a buffer of at least size(width, height, pad) floats
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param pad
+	 *            the number of mirrored pixels on each side
+	 */
+	public PaddedImage(float[] data, int width, int height, int pad) {
+		this.data = data;
+		this.width = width;
+		this.height = height;
+		this.pad = pad;
+		this.stride = width + 2 * pad;
+	}
+
+	/**
+	 * Instantiates a new padded image with a buffer from the context. The
+	 * buffer is handed back with release.
+	 *
+	 * @param context
+	 *            the context
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param pad
+	 *            the number of mirrored pixels on each side
+	 */
+	public PaddedImage(ConvolutionContext context, int width, int height, int pad) {
+		this(context.take_float(size(width, height, pad)), width, height, pad);
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param pad
+	 *            the pad
+	 * @return the number of floats of a padded image
+	 */
+	public static int size(int width, int height, int pad) {
+		return LinesUtil.IMAGE_SIZE(width + 2 * pad, height + 2 * pad);
+	}
+
+	/**
+	 * Index.
+	 *
+	 * @param r
+	 *            the row, in the range [-pad,height+pad)
+	 * @param c
+	 *            the column, in the range [-pad,width+pad)
+	 * @return the index of the pixel (r,c) in data
+	 */
+	public int index(int r, int c) {
+		return (r + pad) * stride + c + pad;
+	}
+
+	/**
+	 * Gets the pixel.
+	 *
+	 * @param r
+	 *            the row, in the range [-pad,height+pad)
+	 * @param c
+	 *            the column, in the range [-pad,width+pad)
+	 * @return the gray value of the pixel (r,c)
+	 */
+	public float get(int r, int c) {
+		return data[(r + pad) * stride + c + pad];
+	}
+
+	/**
+	 * Copy the image into the padded image and mirror it into the border.
+	 *
+	 * @param image
+	 *            the image of size width*height
+	 */
+	public void set_image(float[] image) {
+		int r;
+
+		for (r = 0; r < height; r++)
+			System.arraycopy(image, LinesUtil.LINCOOR(r, 0, width), data, index(r, 0), width);
+		mirror_border();
+	}
+
+	/**
+	 * Mirror the pixels of the image into the border. Must be called after
+	 * the pixels of the image have been written with index.
+	 */
+	/*
+	 * First the left and right border of every row of the image is filled.
+	 * Then the rows above and below the image, including the corners, are
+	 * copies of whole padded rows. LinesUtil.MIRROR gives the same pixels as
+	 * BR and BC, and also handles a pad larger than the image.
+	 */
+	public void mirror_border() {
+		int r, j, l;
+
+		for (r = 0; r < height; r++) {
+			l = index(r, 0);
+			for (j = 1; j <= pad; j++) {
+				data[l - j] = data[l + LinesUtil.MIRROR(-j, width)];
+				data[l + width - 1 + j] = data[l + LinesUtil.MIRROR(width - 1 + j, width)];
+			}
+		}
+		for (j = 1; j <= pad; j++) {
+			System.arraycopy(data, index(LinesUtil.MIRROR(-j, height), -pad), data, index(-j, -pad), stride);
+			System.arraycopy(data, index(LinesUtil.MIRROR(height - 1 + j, height), -pad), data,
+					index(height - 1 + j, -pad), stride);
+		}
+	}
+
+	/**
+	 * Release the buffer to the context it was taken from.
+	 *
+	 * @param context
+	 *            the context
+	 */
+	public void release(ConvolutionContext context) {
+		context.release(data);
+		data = null;
+	}
+
+	/**
+	 * Gets the data.
+	 *
+	 * @return the data
+	 */
+	public float[] getData() {
+		return data;
+	}
+
+	/**
+	 * Gets the width.
+	 *
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height.
+	 *
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the pad.
+	 *
+	 * @return the pad
+	 */
+	public int getPad() {
+		return pad;
+	}
+
+	/**
+	 * Gets the stride.
+	 *
+	 * @return the stride
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+}
@@ -21,6 +21,10 @@
  */
 package de.biomedical_imaging.ij.steger;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.lang3.mutable.MutableDouble;
 import org.apache.commons.lang3.mutable.MutableInt;
 
@@ -39,6 +43,132 @@ public class Position {
 	 */
 	private static final double PIXEL_BOUNDARY = 0.6;
 
+	/** The Constant STRIP_HEIGHT. */
+	/* Minimum number of rows of a strip in the streaming mode */
+	public static final int STRIP_HEIGHT = 256;
+
+	/** The pool used for the parallel parts of the detection. */
+	private ForkJoinPool pool;
+
+	/** The filter used to compute the partial derivatives. */
+	private DerivativeFilter filter;
+
+	/** The context that provides the scratch buffers. */
+	private ConvolutionContext context;
+
+	/** Compute the derivatives in strips of rows. */
+	private boolean streaming = false;
+
+	/** The number of pixels rejected before the eigenvalues were computed. */
+	private AtomicLong rejected = new AtomicLong();
+
+	/** The number of pixels tested by the last detection. */
+	private long tested = 0;
+
+	/**
+	 * Computes the derivatives of a strip of rows in the streaming mode.
+	 */
+	private interface StripFilter {
+
+		/**
+		 * Convolve strip.
+		 *
+		 * @param s0
+		 *            the first row of the strip
+		 * @param s1
+		 *            the row after the last row of the strip
+		 * @param ks
+		 *            the five derivative images of the strip, of size
+		 *            width*(s1-s0)
+		 */
+		void convolve_strip(int s0, int s1, float[][] ks);
+	}
+
+	/**
+	 * Instantiates a new position which runs on the calling thread.
+	 */
+	public Position() {
+		this((ForkJoinPool) null);
+	}
+
+	/**
+	 * Instantiates a new position.
+	 *
+	 * @param pool
+	 *            the pool used for the parallel parts of the detection, or null
+	 *            to run on the calling thread
+	 */
+	public Position(ForkJoinPool pool) {
+		this(new Convol(pool), pool);
+	}
+
+	/**
+	 * Instantiates a new position which computes the partial derivatives with
+	 * the given filter.
+	 *
+	 * @param filter
+	 *            the filter used to compute the partial derivatives
+	 * @param pool
+	 *            the pool used for the parallel parts of the detection, or null
+	 *            to run on the calling thread
+	 */
+	public Position(DerivativeFilter filter, ForkJoinPool pool) {
+		this(filter, pool, new ConvolutionContext());
+	}
+
+	/**
+	 * Instantiates a new position which computes the partial derivatives with
+	 * the given filter and takes its scratch buffers from the given context.
+	 *
+	 * @param filter
+	 *            the filter used to compute the partial derivatives
+	 * @param pool
+	 *            the pool used for the parallel parts of the detection, or null
+	 *            to run on the calling thread
+	 * @param context
+	 *            the context that provides the scratch buffers
+	 */
+	public Position(DerivativeFilter filter, ForkJoinPool pool, ConvolutionContext context) {
+		this.filter = filter;
+		this.pool = pool;
+		this.context = context;
+	}
+
+	/**
+	 * Checks if the streaming mode is enabled.
+	 *
+	 * @return true, if the derivatives are computed in strips of rows
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sets the streaming mode. If set, the derivatives of an image are computed
+	 * in strips of rows, the line points of a strip are extracted immediately,
+	 * and only the first derivatives are kept for the linking and the width.
+	 * The result is the same as without the streaming mode. Only used with
+	 * {@link Convol} and {@link FixedPointConvol}, whose masks have a finite
+	 * size; other filters compute the derivatives of the whole image.
+	 *
+	 * @param streaming
+	 *            true to compute the derivatives in strips of rows
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Gets the rejection rate.
+	 *
+	 * @return the fraction of the pixels of the last detection whose
+	 *         eigenvalues were not computed because they provably could not
+	 *         reach the low threshold
+	 */
+	public double getRejectionRate() {
+		return tested == 0 ? 0.0 : (double) rejected.get() / tested;
+	}
+
 	/**
 	 * Solve the linear equation a*x+b=0 and return the result in t and the number
 	 * of solutions in num.
@@ -193,18 +323,8 @@ public class Position {
 	 *
 	 * @param ku
 	 *            the ku
-	 * @param ismax
-	 *            the ismax
 	 * @param ev
 	 *            the ev
-	 * @param nx
-	 *            the nx
-	 * @param ny
-	 *            the ny
-	 * @param px
-	 *            the px
-	 * @param py
-	 *            the py
 	 * @param width
 	 *            the width
 	 * @param height
@@ -215,73 +335,161 @@ public class Position {
 	 *            the high
 	 * @param mode
 	 *            the mode
+	 * @return the line points
 	 */
 	/*
 	 * For each point in the image determine whether there is a local maximum of the
-	 * second directional derivative in the direction (nx[l],ny[l]) within the
-	 * pixels's boundaries. If so, set ismax[l] to 2 if the eigenvalue ev[l] is
-	 * larger than high, to 1 if ev[l] is larger than low, and to 0 otherwise.
-	 * Furthermore, put the sub-pixel position of the maximum into (px[l],py[l]).
-	 * The parameter mode determines whether maxima (dark lines points) or minima
-	 * (bright line points) should be selected. The partial derivatives of the image
-	 * are input as ku[].
+	 * second directional derivative in the direction (nx,ny) within the pixels's
+	 * boundaries. If so, the point is a line point with ismax 2 if the eigenvalue
+	 * ev[l] is larger than high, with ismax 1 if ev[l] is larger than low, and no
+	 * line point otherwise. The line points are returned with their normal and the
+	 * sub-pixel position (px,py) of the maximum. The parameter mode determines
+	 * whether maxima (dark lines points) or minima (bright line points) should be
+	 * selected. The partial derivatives of the image are input as ku[], and the
+	 * eigenvalues are returned in ev. Pixels that cannot reach low are rejected
+	 * before their eigenvalues are computed (see HessianKernel), and their ev
+	 * is only computed if it is needed to interpolate the response of a line
+	 * point; the other ev stay NaN. The points are independent of
+	 * each other, so the rows are processed in bands on the pool; every band
+	 * collects the points of its own rows, and the bands are merged in the order
+	 * of their rows, so the result is the same as that of a serial sweep.
+	 */
+	private LinePoints compute_line_points(float[][] ku, float[] ev, int width, int height, double low, double high,
+			int mode) {
+		LinePoints[] parts = new LinePoints[height];
+
+		Arrays.fill(ev, Float.NaN);
+		compute_line_points(ku, 0, ev, parts, width, 0, height, low, high, mode);
+		return LinePoints.merge(parts, ev, width, height);
+	}
+
+	/**
+	 * Compute line points.
+	 *
+	 * @param ku
+	 *            the ku
+	 * @param ko
+	 *            the index of the first pixel of ku in the image
+	 * @param ev
+	 *            the ev
+	 * @param parts
+	 *            the line points of the bands, indexed by the first row of a
+	 *            band; the length is the height of the image
+	 * @param width
+	 *            the width
+	 * @param from
+	 *            the first row
+	 * @param to
+	 *            the row after the last row
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
 	 */
-	private void compute_line_points(float[][] ku, byte[] ismax, float[] ev, float[] nx, float[] ny, float[] px,
-			float[] py, int width, int height, double low, double high, int mode) {
-		int r, c, l;
-		double[] k = new double[5];
+	/*
+	 * Same as above for the rows [from,to) of the image, whose derivatives are
+	 * taken from a strip ku of the image that starts at pixel ko. The strip must
+	 * contain the rows from-1 and to, except at the border of the image. ev must
+	 * be NaN for the pixels that have not been computed yet.
+	 */
+	private void compute_line_points(final float[][] ku, final int ko, final float[] ev, final LinePoints[] parts,
+			final int width, int from, int to, final double low, final double high, final int mode) {
+		int height = parts.length;
+		int r, c, l, i, dr, dc, nl;
+		int[] index;
 		double[] eigval = new double[2];
 		double[][] eigvec = new double[2][2];
-		double a, b;
-		MutableDouble t = new MutableDouble();
-		MutableInt num = new MutableInt();
-		double n1, n2;
-		double p1, p2;
 		double val;
 
-		for (r = 0; r < height; r++) {
-			for (c = 0; c < width; c++) {
-				l = LinesUtil.LINCOOR(r, c, width);
+		BandExecutor.execute(pool, from, to, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				parts[from] = compute_line_points_band(ku, ko, ev, width, parts.length, from, to, low, high, mode);
+			}
+		});
+		/* Compute the rejected ev in the 3x3 neighbourhood of the line points */
+		for (r = from; r < to; r++) {
+			if (parts[r] == null)
+				continue;
+			index = parts[r].getIndex();
+			for (i = 0; i < parts[r].getNum(); i++) {
+				for (dr = -1; dr <= 1; dr++) {
+					for (dc = -1; dc <= 1; dc++) {
+						l = index[i];
+						c = l % width;
+						nl = LinesUtil.LINCOOR(LinesUtil.MIRROR(l / width + dr, height), LinesUtil.MIRROR(c + dc, width),
+								width);
+						if (!Float.isNaN(ev[nl]))
+							continue;
+						compute_eigenvals(ku[2][nl - ko], ku[3][nl - ko], ku[4][nl - ko], eigval, eigvec);
+						val = (mode == LinesUtil.MODE_LIGHT) ? -eigval[0] : eigval[0];
+						ev[nl] = (val > 0.0) ? (float) val : (float) 0.0;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute line points band.
+	 *
+	 * @param ku
+	 *            the ku
+	 * @param ko
+	 *            the index of the first pixel of ku in the image
+	 * @param ev
+	 *            the ev
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param from
+	 *            the first row
+	 * @param to
+	 *            the row after the last row
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
+	 * @return the line points of the rows
+	 */
+	private LinePoints compute_line_points_band(float[][] ku, int ko, float[] ev, int width, int height, int from,
+			int to, double low, double high, int mode) {
+		LinePoints points = new LinePoints(width, height);
+		int r, c, l, i;
+		double[][] k = new double[5][width];
+		double[] val = new double[width];
+		double[] n1 = new double[width];
+		double[] n2 = new double[width];
+		double[] p1 = new double[width];
+		double[] p2 = new double[width];
 
-				k[0] = ku[0][l];
-				k[1] = ku[1][l];
-				k[2] = ku[2][l];
-				k[3] = ku[3][l];
-				k[4] = ku[4][l];
+		for (r = from; r < to; r++) {
+			l = LinesUtil.LINCOOR(r, 0, width);
+			for (i = 0; i < 5; i++)
+				for (c = 0; c < width; c++)
+					k[i][c] = ku[i][l - ko + c];
+			rejected.addAndGet(
+					HessianKernel.line_points(k[0], k[1], k[2], k[3], k[4], width, mode, low, val, n1, n2, p1, p2));
+			for (c = 0; c < width; c++, l++) {
+				/* The ev of a rejected pixel stays NaN */
+				if (Double.isNaN(val[c]))
+					continue;
 				ev[l] = (float) 0.0;
-				nx[l] = (float) 0.0;
-				ny[l] = (float) 0.0;
-				compute_eigenvals(k[2], k[3], k[4], eigval, eigvec);
-				if (mode == LinesUtil.MODE_LIGHT)
-					val = -eigval[0];
-				else
-					val = eigval[0];
-				if (val > 0.0) {
-					ev[l] = (float) val;
-					n1 = eigvec[0][0];
-					n2 = eigvec[0][1];
-					a = k[2] * n1 * n1 + 2.0 * k[3] * n1 * n2 + k[4] * n2 * n2;
-					b = k[0] * n1 + k[1] * n2;
-					solve_linear(a, b, t, num);
-					if (num.intValue() != 0) {
-						p1 = t.doubleValue() * n1;
-						p2 = t.doubleValue() * n2;
-						if (Math.abs(p1) <= PIXEL_BOUNDARY && Math.abs(p2) <= PIXEL_BOUNDARY) {
-							if (val >= low) {
-								if (val >= high)
-									ismax[l] = 2;
-								else
-									ismax[l] = 1;
-							}
-							nx[l] = (float) n1;
-							ny[l] = (float) n2;
-							px[l] = (float) (r + p1);
-							py[l] = (float) (c + p2);
-						}
-					}
+				if (val[c] > 0.0) {
+					ev[l] = (float) val[c];
+					/* p1 and p2 are NaN if there is no extremum */
+					if (val[c] >= low && Math.abs(p1[c]) <= PIXEL_BOUNDARY && Math.abs(p2[c]) <= PIXEL_BOUNDARY)
+						points.add(l, (byte) (val[c] >= high ? 2 : 1), (float) val[c], (float) n1[c], (float) n2[c],
+								(float) (r + p1[c]), (float) (c + p2[c]));
 				}
 			}
 		}
+		return points;
 	}
 
 	/**
@@ -327,47 +535,409 @@ public class Position {
 	public void detect_lines(float[] image, int width, int height, Lines contours, MutableInt num_result, double sigma,
 			double low, double high, int mode, boolean compute_width, boolean correct_pos, boolean extend_lines,
 			Junctions junctions) {
-		byte[] ismax;
-		float[] ev, n1, n2, p1, p2;
-		float[][] k = new float[5][(width * height)];
-
-		// for (i=0;i<5;i++)
-		// k[i] = xcalloc(width*height,sizeof(float));
-		Convol convol = new Convol();
-		convol.convolve_gauss(image, k[0], width, height, sigma, LinesUtil.DERIV_R);
-		convol.convolve_gauss(image, k[1], width, height, sigma, LinesUtil.DERIV_C);
-		convol.convolve_gauss(image, k[2], width, height, sigma, LinesUtil.DERIV_RR);
-		convol.convolve_gauss(image, k[3], width, height, sigma, LinesUtil.DERIV_RC);
-
-		convol.convolve_gauss(image, k[4], width, height, sigma, LinesUtil.DERIV_CC);
-
-		ismax = new byte[(width * height)];
-		ev = new float[(width * height)];
-		n1 = new float[(width * height)];
-		n2 = new float[(width * height)];
-		p1 = new float[(width * height)];
-		p2 = new float[(width * height)];
+		detect_lines(image, width, height, contours, num_result, sigma, low, high, mode, compute_width, correct_pos,
+				extend_lines, junctions, null);
+	}
+
+	/**
+	 * Detect lines.
+	 *
+	 * @param image
+	 *            the image
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param contours
+	 *            the contours
+	 * @param num_result
+	 *            the num result
+	 * @param sigma
+	 *            the sigma
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
+	 * @param compute_width
+	 *            the compute width
+	 * @param correct_pos
+	 *            the correct pos
+	 * @param extend_lines
+	 *            the extend lines
+	 * @param junctions
+	 *            the junctions
+	 * @param pyramid
+	 *            the pyramid that refines the contours before the width is
+	 *            extracted, or null
+	 */
+	void detect_lines(float[] image, int width, int height, Lines contours, MutableInt num_result, double sigma,
+			double low, double high, int mode, boolean compute_width, boolean correct_pos, boolean extend_lines,
+			Junctions junctions, Pyramid pyramid) {
+		float[][] k = new float[5][];
+		int i;
+
+		if (streaming && filter instanceof Convol) {
+			detect_lines_streaming(float_strips(image, width, sigma), width, height, contours, num_result, sigma, low,
+					high, mode, compute_width, correct_pos, extend_lines, junctions, pyramid);
+			return;
+		}
 		/*
-		 * The C library function void *memset(void *str, int c, size_t n) copies the
-		 * character c (an unsigned char) to the first n characters of the string
-		 * pointed to by the argument str.
+		 * The scratch buffers are taken from the context and given back at the
+		 * end, so that the next image of the same size does not allocate them
+		 * again. They are filled with 0.
 		 */
-		// memset(ismax,0,width*height*sizeof(*ismax));
-		// memset(ev,0,width*height*sizeof(*ev));
-		for (int j = 0; j < ismax.length; j++) {
-			ev[j] = 0;
-			ismax[j] = 0;
+		for (i = 0; i < 5; i++)
+			k[i] = context.take_float(LinesUtil.IMAGE_SIZE(width, height));
+		/* DERIV_R, DERIV_C, DERIV_RR, DERIV_RC and DERIV_CC in a single traversal. */
+		filter.convolve_derivatives(image, k, width, height, sigma);
+
+		detect_lines(k, width, height, contours, num_result, sigma, low, high, mode, compute_width, correct_pos,
+				extend_lines, junctions, pyramid);
+
+		for (i = 0; i < 5; i++)
+			context.release(k[i]);
+	}
+
+	/**
+	 * Detect lines.
+	 *
+	 * @param k
+	 *            the five derivative images of the image in the order DERIV_R,
+	 *            DERIV_C, DERIV_RR, DERIV_RC, DERIV_CC, e.g. from a ScaleSpace
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param contours
+	 *            the contours
+	 * @param num_result
+	 *            the num result
+	 * @param sigma
+	 *            the sigma the derivatives were computed with
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
+	 * @param compute_width
+	 *            the compute width
+	 * @param correct_pos
+	 *            the correct pos
+	 * @param extend_lines
+	 *            the extend lines
+	 * @param junctions
+	 *            the junctions
+	 */
+	/*
+	 * Same as above, but with derivatives that have been computed by the caller.
+	 * The derivatives are not modified.
+	 */
+	public void detect_lines(float[][] k, int width, int height, Lines contours, MutableInt num_result, double sigma,
+			double low, double high, int mode, boolean compute_width, boolean correct_pos, boolean extend_lines,
+			Junctions junctions) {
+		detect_lines(k, width, height, contours, num_result, sigma, low, high, mode, compute_width, correct_pos,
+				extend_lines, junctions, null);
+	}
+
+	/**
+	 * Detect lines.
+	 *
+	 * @param k
+	 *            the five derivative images
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param contours
+	 *            the contours
+	 * @param num_result
+	 *            the num result
+	 * @param sigma
+	 *            the sigma the derivatives were computed with
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
+	 * @param compute_width
+	 *            the compute width
+	 * @param correct_pos
+	 *            the correct pos
+	 * @param extend_lines
+	 *            the extend lines
+	 * @param junctions
+	 *            the junctions
+	 * @param pyramid
+	 *            the pyramid that refines the contours before the width is
+	 *            extracted, or null
+	 */
+	void detect_lines(float[][] k, int width, int height, Lines contours, MutableInt num_result, double sigma,
+			double low, double high, int mode, boolean compute_width, boolean correct_pos, boolean extend_lines,
+			Junctions junctions, Pyramid pyramid) {
+		float[] ev = context.take_float(LinesUtil.IMAGE_SIZE(width, height));
+		rejected.set(0);
+		tested = (long) width * height;
+		LinePoints points = compute_line_points(k, ev, width, height, low, high, mode);
+
+		/* The dense responses are only needed to interpolate the responses of the points */
+		context.release(ev);
+		link_lines(k[0], k[1], points, width, height, contours, num_result, sigma, low, high, mode, compute_width,
+				correct_pos, extend_lines, junctions, pyramid);
+	}
+
+	/**
+	 * Detect lines in an 8-bit image with the derivatives of a
+	 * {@link FixedPointConvol}. The filter of this position is not used. The
+	 * streaming mode is supported as with {@link Convol}, since the fixed point
+	 * masks have the size of the masks of Convol.
+	 *
+	 * @param image
+	 *            the 8-bit image
+	 * @param fixed
+	 *            the fixed point convolution
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param contours
+	 *            the contours
+	 * @param num_result
+	 *            the num result
+	 * @param sigma
+	 *            the sigma
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
+	 * @param compute_width
+	 *            the compute width
+	 * @param correct_pos
+	 *            the correct pos
+	 * @param extend_lines
+	 *            the extend lines
+	 * @param junctions
+	 *            the junctions
+	 */
+	public void detect_lines(byte[] image, FixedPointConvol fixed, int width, int height, Lines contours,
+			MutableInt num_result, double sigma, double low, double high, int mode, boolean compute_width,
+			boolean correct_pos, boolean extend_lines, Junctions junctions) {
+		float[][] k = new float[5][];
+		int i;
+
+		if (streaming) {
+			detect_lines_streaming(byte_strips(image, fixed, width, sigma), width, height, contours, num_result,
+					sigma, low, high, mode, compute_width, correct_pos, extend_lines, junctions, null);
+			return;
+		}
+		for (i = 0; i < 5; i++)
+			k[i] = context.take_float(LinesUtil.IMAGE_SIZE(width, height));
+		fixed.convolve_derivatives(image, k, width, height, sigma);
+
+		detect_lines(k, width, height, contours, num_result, sigma, low, high, mode, compute_width, correct_pos,
+				extend_lines, junctions, null);
+
+		for (i = 0; i < 5; i++)
+			context.release(k[i]);
+	}
+
+	/**
+	 * Float strips.
+	 *
+	 * @param image
+	 *            the image
+	 * @param width
+	 *            the width
+	 * @param sigma
+	 *            the sigma
+	 * @return the strips of the image, convolved with the filter
+	 */
+	private StripFilter float_strips(final float[] image, final int width, final double sigma) {
+		return new StripFilter() {
+			@Override
+			public void convolve_strip(int s0, int s1, float[][] ks) {
+				float[] sub = context.take_float(width * (s1 - s0));
+				System.arraycopy(image, s0 * width, sub, 0, sub.length);
+				filter.convolve_derivatives(sub, ks, width, s1 - s0, sigma);
+				context.release(sub);
+			}
+		};
+	}
+
+	/**
+	 * Byte strips.
+	 *
+	 * @param image
+	 *            the 8-bit image
+	 * @param fixed
+	 *            the fixed point convolution
+	 * @param width
+	 *            the width
+	 * @param sigma
+	 *            the sigma
+	 * @return the strips of the image, convolved with the fixed point masks
+	 */
+	private StripFilter byte_strips(final byte[] image, final FixedPointConvol fixed, final int width,
+			final double sigma) {
+		return new StripFilter() {
+			@Override
+			public void convolve_strip(int s0, int s1, float[][] ks) {
+				byte[] sub = context.take_byte(width * (s1 - s0));
+				System.arraycopy(image, s0 * width, sub, 0, sub.length);
+				fixed.convolve_derivatives(sub, ks, width, s1 - s0, sigma);
+				context.release(sub);
+			}
+		};
+	}
+
+	/**
+	 * Detect lines streaming.
+	 *
+	 * @param strips
+	 *            computes the derivatives of a strip of rows of the image
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param contours
+	 *            the contours
+	 * @param num_result
+	 *            the num result
+	 * @param sigma
+	 *            the sigma
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
+	 * @param compute_width
+	 *            the compute width
+	 * @param correct_pos
+	 *            the correct pos
+	 * @param extend_lines
+	 *            the extend lines
+	 * @param junctions
+	 *            the junctions
+	 * @param pyramid
+	 *            the pyramid that refines the contours before the width is
+	 *            extracted, or null
+	 */
+	/*
+	 * The rows [r0,r1) of the derivatives only depend on the rows [r0-n,r1+n) of
+	 * the image, n the radius of the largest mask, and the mirroring at the
+	 * border of a strip only reaches n rows into the strip. So the derivatives
+	 * of a strip with a halo of n rows on both sides are the same as those of
+	 * the whole image, except in the halo. The line points of a strip are
+	 * extracted right away, and the second derivatives of the strip are
+	 * discarded. Only the first derivatives are kept for Link and Width, which
+	 * saves the 12 bytes per pixel of the second derivatives, and the padded
+	 * copy of the whole image that the convolution makes.
+	 */
+	private void detect_lines_streaming(StripFilter strips, int width, int height, Lines contours,
+			MutableInt num_result, double sigma, double low, double high, int mode, boolean compute_width,
+			boolean correct_pos, boolean extend_lines, Junctions junctions, Pyramid pyramid) {
+		int halo = context.get_half_gauss_mask(2, sigma).length - 1;
+		int strip = Math.max(STRIP_HEIGHT, 4 * halo);
+		float[][] ks = new float[5][];
+		float[] dx, dy, ev;
+		LinePoints[] parts = new LinePoints[height];
+		LinePoints points;
+		int r0, r1, s0, s1, i;
+
+		dx = context.take_float(LinesUtil.IMAGE_SIZE(width, height));
+		dy = context.take_float(LinesUtil.IMAGE_SIZE(width, height));
+		ev = context.take_float(LinesUtil.IMAGE_SIZE(width, height));
+		Arrays.fill(ev, Float.NaN);
+		rejected.set(0);
+		tested = (long) width * height;
+
+		for (r0 = 0; r0 < height; r0 = r1) {
+			r1 = Math.min(height, r0 + strip);
+			/* A short last strip is merged into this one */
+			if (height - r1 < halo)
+				r1 = height;
+			/* One more row on both sides for the neighbourhood of the line points */
+			s0 = Math.max(0, r0 - halo - 1);
+			s1 = Math.min(height, r1 + halo + 1);
+			for (i = 0; i < 5; i++)
+				ks[i] = context.take_float(width * (s1 - s0));
+			strips.convolve_strip(s0, s1, ks);
+			System.arraycopy(ks[0], (r0 - s0) * width, dx, r0 * width, (r1 - r0) * width);
+			System.arraycopy(ks[1], (r0 - s0) * width, dy, r0 * width, (r1 - r0) * width);
+			compute_line_points(ks, s0 * width, ev, parts, width, r0, r1, low, high, mode);
+			for (i = 0; i < 5; i++)
+				context.release(ks[i]);
 		}
 
-		compute_line_points(k, ismax, ev, n1, n2, p1, p2, width, height, low, high, mode);
+		points = LinePoints.merge(parts, ev, width, height);
+		context.release(ev);
+
+		link_lines(dx, dy, points, width, height, contours, num_result, sigma, low, high, mode, compute_width,
+				correct_pos, extend_lines, junctions, pyramid);
+
+		context.release(dx);
+		context.release(dy);
+	}
+
+	/**
+	 * Link lines.
+	 *
+	 * @param dx
+	 *            the first derivative in row direction
+	 * @param dy
+	 *            the first derivative in column direction
+	 * @param points
+	 *            the line points
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param contours
+	 *            the contours
+	 * @param num_result
+	 *            the num result
+	 * @param sigma
+	 *            the sigma
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
+	 * @param compute_width
+	 *            the compute width
+	 * @param correct_pos
+	 *            the correct pos
+	 * @param extend_lines
+	 *            the extend lines
+	 * @param junctions
+	 *            the junctions
+	 * @param pyramid
+	 *            the pyramid that refines the contours before the width is
+	 *            extracted, or null
+	 */
+	/*
+	 * Links the line points into contours and extracts their width.
+	 */
+	private void link_lines(float[] dx, float[] dy, LinePoints points, int width, int height, Lines contours,
+			MutableInt num_result, double sigma, double low, double high, int mode, boolean compute_width,
+			boolean correct_pos, boolean extend_lines, Junctions junctions, Pyramid pyramid) {
+		Link l = new Link(pool, context);
+		l.compute_contours(points, dx, dy, contours, num_result, sigma, extend_lines, mode, low, high, width, height,
+				junctions);
 
-		Link l = new Link();
-		l.compute_contours(ismax, ev, n1, n2, p1, p2, k[0], k[1], contours, num_result, sigma, extend_lines, mode, low,
-				high, width, height, junctions);
+		if (pyramid != null)
+			pyramid.refine(contours);
 
-		Width w = new Width();
+		Width w = new Width(context);
 		if (compute_width)
-			w.compute_line_width(k[0], k[1], width, height, sigma, mode, correct_pos, contours, num_result);
+			w.compute_line_width(dx, dy, width, height, sigma, mode, correct_pos, contours, num_result);
 
 	}
 
@@ -0,0 +1,453 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.apache.commons.lang3.mutable.MutableInt;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Pyramid.
+ */
+/*
+ * Detection of lines with a large sigma on a downsampled image. The derivatives
+ * of a Gaussian with a large sigma are band-limited, so the image can be
+ * reduced by a factor f = 2^level (each pixel of the small image is the mean of
+ * an f x f block) and the lines are detected on the small image with sigma/f.
+ * This divides the number of pixels, and for the FIR filter also the mask
+ * sizes, by f. The resulting contours are mapped back to the coordinates of
+ * the full resolution image. Optionally, the position of every line point is
+ * refined with the derivatives of the full resolution image at the original
+ * sigma, which are only evaluated at the line points.
+ *
+ * The block mean and the pixel integration of the masks of Convol add to the
+ * variance of the smoothing. The sigma on the small image is chosen so that
+ * the total variance is the one of sigma at full resolution:
+ * f^2*s^2 = sigma^2 - (f^2-1)/6. The second derivatives on the small image
+ * are f^2 times those at full resolution, so the thresholds and the responses
+ * are scaled by f^2, and the widths by f.
+ */
+public class Pyramid {
+
+	/** The Constant MIN_SIGMA. */
+	/* Smallest sigma on the small image, below it the masks are undersampled */
+	public static final double MIN_SIGMA = 2.0;
+
+	/** The Constant MAX_REFINE_ITER. */
+	/* Number of pixels the search for the maximum may step along the normal */
+	private static final int MAX_REFINE_ITER = 3;
+
+	/** The Constant PIXEL_BOUNDARY. */
+	private static final double PIXEL_BOUNDARY = 0.5;
+
+	/** The level. */
+	private int level;
+
+	/** The factor 2^level. */
+	private int factor;
+
+	/** Refine the positions at full resolution. */
+	private boolean refine;
+
+	/** The context. */
+	private ConvolutionContext context;
+
+	/** The image at full resolution. */
+	private float[] image;
+
+	/** The width at full resolution. */
+	private int width;
+
+	/** The height at full resolution. */
+	private int height;
+
+	/** The sigma at full resolution. */
+	private double sigma;
+
+	/** The mode. */
+	private int mode;
+
+	/**
+	 * Instantiates a new pyramid.
+	 *
+	 * @param level
+	 *            the level, the image is reduced by 2^level
+	 * @param refine
+	 *            refine the positions of the line points at full resolution
+	 * @param context
+	 *            the context
+	 */
+	public Pyramid(int level, boolean refine, ConvolutionContext context) {
+		this.level = level;
+		this.factor = 1 << level;
+		this.refine = refine;
+		this.context = context;
+	}
+
+	/**
+	 * Level.
+	 *
+	 * @param sigma
+	 *            the sigma
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @return the largest level at which sigma is at least MIN_SIGMA and the
+	 *         masks still fit into the small image, 0 if no reduction is possible
+	 */
+	public static int level(double sigma, int width, int height) {
+		int level = 0, f, min_dim;
+
+		while (true) {
+			f = 1 << (level + 1);
+			min_dim = Math.min((width + f - 1) / f, (height + f - 1) / f);
+			if (sigma / f < MIN_SIGMA
+					|| LinesUtil.MASK_SIZE(LinesUtil.MAX_SIZE_MASK_2, small_sigma(sigma, level + 1)) >= min_dim)
+				return level;
+			level++;
+		}
+	}
+
+	/**
+	 * Small sigma.
+	 *
+	 * @param sigma
+	 *            the sigma at full resolution
+	 * @param level
+	 *            the level
+	 * @return the sigma on the image reduced by 2^level
+	 */
+	public static double small_sigma(double sigma, int level) {
+		double f2 = (double) (1 << level) * (1 << level);
+
+		return Math.sqrt(Math.max(sigma * sigma - (f2 - 1) / 6, 0)) / (1 << level);
+	}
+
+	/**
+	 * Gets the level.
+	 *
+	 * @return the level
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Detect lines.
+	 *
+	 * @param p
+	 *            the position used on the small image
+	 * @param image
+	 *            the image
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param contours
+	 *            the contours
+	 * @param num_result
+	 *            the num result
+	 * @param sigma
+	 *            the sigma
+	 * @param low
+	 *            the low
+	 * @param high
+	 *            the high
+	 * @param mode
+	 *            the mode
+	 * @param compute_width
+	 *            the compute width
+	 * @param correct_pos
+	 *            the correct pos
+	 * @param extend_lines
+	 *            the extend lines
+	 * @param junctions
+	 *            the junctions
+	 */
+	/*
+	 * Same as Position.detect_lines, but on the reduced image. The contours and
+	 * junctions are returned in the coordinates of the full resolution image.
+	 */
+	public void detect_lines(Position p, float[] image, int width, int height, Lines contours, MutableInt num_result,
+			double sigma, double low, double high, int mode, boolean compute_width, boolean correct_pos,
+			boolean extend_lines, Junctions junctions) {
+		int w = (width + factor - 1) / factor;
+		int h = (height + factor - 1) / factor;
+		double f2 = (double) factor * factor;
+		float[] small;
+
+		this.image = image;
+		this.width = width;
+		this.height = height;
+		this.sigma = sigma;
+		this.mode = mode;
+
+		small = context.take_float(LinesUtil.IMAGE_SIZE(w, h));
+		reduce(image, width, height, small, w, h);
+		p.detect_lines(small, w, h, contours, num_result, small_sigma(sigma, level), low * f2, high * f2, mode,
+				compute_width, correct_pos, extend_lines, junctions, refine ? this : null);
+		context.release(small);
+		map(contours, junctions);
+		this.image = null;
+	}
+
+	/**
+	 * Reduce.
+	 *
+	 * @param image
+	 *            the image
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param small
+	 *            the small
+	 * @param w
+	 *            the width of small
+	 * @param h
+	 *            the height of small
+	 */
+	/*
+	 * Each pixel of the small image is the mean of a block of factor x factor
+	 * pixels. The blocks at the right and bottom border may be smaller.
+	 */
+	private void reduce(float[] image, int width, int height, float[] small, int w, int h) {
+		int r, c, l, cnt;
+		int rs, cs;
+
+		for (r = 0; r < height; r++) {
+			rs = LinesUtil.LINCOOR(r / factor, 0, w);
+			l = LinesUtil.LINCOOR(r, 0, width);
+			for (c = 0; c < width; c++)
+				small[rs + c / factor] += image[l + c];
+		}
+		for (r = 0; r < h; r++) {
+			for (c = 0; c < w; c++) {
+				cnt = Math.min(factor, height - r * factor) * Math.min(factor, width - c * factor);
+				small[LinesUtil.LINCOOR(r, c, w)] /= cnt;
+			}
+		}
+	}
+
+	/**
+	 * To full.
+	 *
+	 * @param x
+	 *            a coordinate on the small image
+	 * @return the coordinate on the full resolution image
+	 */
+	/* The center of the block of pixel x of the small image */
+	private double to_full(double x) {
+		return factor * x + 0.5 * (factor - 1);
+	}
+
+	/**
+	 * Map.
+	 *
+	 * @param contours
+	 *            the contours
+	 * @param junctions
+	 *            the junctions
+	 */
+	/* Map the contours and junctions back to full resolution. */
+	private void map(Lines contours, Junctions junctions) {
+		double f2 = (double) factor * factor;
+		int i;
+
+		/* The linking may add a contour twice, it must be mapped once */
+		Set<Object> mapped = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+		for (Line cont : contours) {
+			if (!mapped.add(cont))
+				continue;
+			for (i = 0; i < cont.num; i++) {
+				cont.row[i] = (float) to_full(cont.row[i]);
+				cont.col[i] = (float) to_full(cont.col[i]);
+				cont.response[i] = (float) (cont.response[i] / f2);
+				if (cont.width_l != null)
+					cont.width_l[i] *= factor;
+				if (cont.width_r != null)
+					cont.width_r[i] *= factor;
+			}
+		}
+		for (Junction junc : junctions) {
+			if (!mapped.add(junc))
+				continue;
+			junc.x = (float) to_full(junc.x);
+			junc.y = (float) to_full(junc.y);
+		}
+	}
+
+	/**
+	 * Refine.
+	 *
+	 * @param contours
+	 *            the contours on the small image, before the width is extracted
+	 */
+	/*
+	 * Move every line point to the maximum of the second directional derivative
+	 * at full resolution, in the same way as compute_line_points locates it on a
+	 * pixel. The points that the linking made junction points are kept, so that
+	 * the junctions stay on their lines. A point whose maximum is not found
+	 * within MAX_REFINE_ITER pixels, or not within one block of the small image,
+	 * keeps its position. The points of a contour are refined together: in every
+	 * iteration the derivatives of the points that are still moving are
+	 * evaluated, and their maxima are located by one call of
+	 * HessianKernel.line_points.
+	 */
+	void refine(Lines contours) {
+		double[][] masks = new double[3][];
+		double[][] k = new double[5][];
+		double[] val, n1, n2, p1, p2, qx, qy;
+		int[] idx, rows, cols;
+		double px, py;
+		int i, j, m, next, it, first, last, max_num = 0;
+
+		Set<Line> refined = Collections.newSetFromMap(new IdentityHashMap<Line, Boolean>());
+
+		for (i = 0; i < 3; i++)
+			masks[i] = context.get_gauss_mask(i, sigma);
+		for (Line cont : contours)
+			max_num = Math.max(max_num, cont.num);
+		for (i = 0; i < 5; i++)
+			k[i] = new double[max_num];
+		val = new double[max_num];
+		n1 = new double[max_num];
+		n2 = new double[max_num];
+		p1 = new double[max_num];
+		p2 = new double[max_num];
+		qx = new double[max_num];
+		qy = new double[max_num];
+		idx = new int[max_num];
+		rows = new int[max_num];
+		cols = new int[max_num];
+		for (Line cont : contours) {
+			if (!refined.add(cont))
+				continue;
+			first = 0;
+			last = cont.num - 1;
+			if (cont.getContourClass() == LinesUtil.contour_class.cont_start_junc
+					|| cont.getContourClass() == LinesUtil.contour_class.cont_both_junc)
+				first = 1;
+			if (cont.getContourClass() == LinesUtil.contour_class.cont_end_junc
+					|| cont.getContourClass() == LinesUtil.contour_class.cont_both_junc)
+				last = cont.num - 2;
+			m = 0;
+			for (i = first; i <= last; i++) {
+				idx[m] = i;
+				qx[m] = to_full(cont.row[i]);
+				qy[m] = to_full(cont.col[i]);
+				m++;
+			}
+			for (it = 0; it < MAX_REFINE_ITER && m > 0; it++) {
+				for (j = 0; j < m; j++) {
+					rows[j] = Math.min(Math.max((int) Math.floor(qx[j] + 0.5), 0), height - 1);
+					cols[j] = Math.min(Math.max((int) Math.floor(qy[j] + 0.5), 0), width - 1);
+					derivatives(masks, rows[j], cols[j], k, j);
+				}
+				HessianKernel.line_points(k[0], k[1], k[2], k[3], k[4], m, mode, 0.0, val, n1, n2, p1, p2);
+				next = 0;
+				for (j = 0; j < m; j++) {
+					/* p1 and p2 are NaN if there is no maximum, the point keeps its position */
+					if (Double.isNaN(p1[j]))
+						continue;
+					i = idx[j];
+					qx[j] = rows[j] + p1[j];
+					qy[j] = cols[j] + p2[j];
+					if (Math.abs(p1[j]) <= PIXEL_BOUNDARY && Math.abs(p2[j]) <= PIXEL_BOUNDARY) {
+						px = to_full(cont.row[i]);
+						py = to_full(cont.col[i]);
+						if (Math.abs(qx[j] - px) <= factor && Math.abs(qy[j] - py) <= factor) {
+							cont.row[i] = (float) ((qx[j] - 0.5 * (factor - 1)) / factor);
+							cont.col[i] = (float) ((qy[j] - 0.5 * (factor - 1)) / factor);
+						}
+					} else {
+						idx[next] = i;
+						qx[next] = qx[j];
+						qy[next] = qy[j];
+						next++;
+					}
+				}
+				m = next;
+			}
+		}
+	}
+
+	/**
+	 * Derivatives.
+	 *
+	 * @param masks
+	 *            the masks of the 0th, 1st, and 2nd derivative at sigma
+	 * @param r
+	 *            the row
+	 * @param c
+	 *            the column
+	 * @param k
+	 *            the five derivatives of the full resolution image in the order
+	 *            DERIV_R, DERIV_C, DERIV_RR, DERIV_RC, DERIV_CC
+	 * @param p
+	 *            the index in k where the derivatives at (r,c) are stored
+	 */
+	/*
+	 * The same sums as Convol computes for the whole image, evaluated at a
+	 * single pixel: every row of the window is convolved with the three column
+	 * masks, and the results are combined with the row masks.
+	 */
+	private void derivatives(double[][] masks, int r, int c, double[][] k, int p) {
+		double[] m0 = masks[0], m1 = masks[1], m2 = masks[2];
+		int n0 = (m0.length - 1) / 2, n1 = (m1.length - 1) / 2, n2 = (m2.length - 1) / 2;
+		double c0, c1, c2, x, kr = 0, kc = 0, krr = 0, krc = 0, kcc = 0;
+		int i, j, l;
+
+		for (i = -n2; i <= n2; i++) {
+			l = LinesUtil.LINCOOR(LinesUtil.MIRROR(r + i, height), 0, width);
+			c0 = c1 = c2 = 0;
+			for (j = -n2; j <= n2; j++) {
+				x = image[l + LinesUtil.MIRROR(c + j, width)];
+				if (j >= -n0 && j <= n0)
+					c0 += m0[j + n0] * x;
+				if (j >= -n1 && j <= n1)
+					c1 += m1[j + n1] * x;
+				c2 += m2[j + n2] * x;
+			}
+			if (i >= -n0 && i <= n0) {
+				kc += m0[i + n0] * c1; /* DERIV_C */
+				kcc += m0[i + n0] * c2; /* DERIV_CC */
+			}
+			if (i >= -n1 && i <= n1) {
+				kr += m1[i + n1] * c0; /* DERIV_R */
+				krc += m1[i + n1] * c1; /* DERIV_RC */
+			}
+			krr += m2[i + n2] * c0; /* DERIV_RR */
+		}
+		k[0][p] = kr;
+		k[1][p] = kc;
+		k[2][p] = krr;
+		k[3][p] = krc;
+		k[4][p] = kcc;
+	}
+
+}
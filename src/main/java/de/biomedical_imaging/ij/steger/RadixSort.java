@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class RadixSort.
+ */
+/*
+ * Least significant digit radix sort of items by a float key, used for the
+ * starting points of the linking. The bits of a float are mapped to an int
+ * whose unsigned order is the order of the floats (the sign bit is flipped for
+ * positive floats, all bits for negative floats), and the int is complemented
+ * for a descending order. The int is sorted in four passes of 8 bits; a pass
+ * is skipped if all keys have the same digit. Every pass is stable, so items
+ * with equal keys keep their order, like with the merge sort of
+ * Arrays.sort(Object[]).
+ */
+public class RadixSort {
+
+	/** The Constant RADIX_BITS. */
+	private static final int RADIX_BITS = 8;
+
+	/** The Constant RADIX. */
+	private static final int RADIX = 1 << RADIX_BITS;
+
+	/**
+	 * Sort descending.
+	 *
+	 * @param items
+	 *            the items to sort, e.g. the slots of line points
+	 * @param keys
+	 *            the key of each item, indexed by the item
+	 * @param n
+	 *            the number of items
+	 */
+	public static void sort_descending(int[] items, float[] keys, int n) {
+		int[] key = new int[n], tkey = new int[n], titem = new int[n], swap;
+		int[] count = new int[RADIX];
+		int i, b, shift, d, sum, c;
+
+		for (i = 0; i < n; i++) {
+			b = Float.floatToIntBits(keys[items[i]]);
+			key[i] = ~(b ^ ((b >> 31) | 0x80000000));
+		}
+		for (shift = 0; shift < 32; shift += RADIX_BITS) {
+			java.util.Arrays.fill(count, 0);
+			for (i = 0; i < n; i++)
+				count[(key[i] >>> shift) & (RADIX - 1)]++;
+			if (n == 0 || count[(key[0] >>> shift) & (RADIX - 1)] == n)
+				continue;
+			sum = 0;
+			for (d = 0; d < RADIX; d++) {
+				c = count[d];
+				count[d] = sum;
+				sum += c;
+			}
+			for (i = 0; i < n; i++) {
+				d = (key[i] >>> shift) & (RADIX - 1);
+				tkey[count[d]] = key[i];
+				titem[count[d]++] = items[i];
+			}
+			swap = key;
+			key = tkey;
+			tkey = swap;
+			System.arraycopy(titem, 0, items, 0, n);
+		}
+	}
+
+}
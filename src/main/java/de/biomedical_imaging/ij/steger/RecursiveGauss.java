@@ -0,0 +1,538 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.lang3.mutable.MutableLong;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class RecursiveGauss.
+ */
+/*
+ * Recursive approximation of the convolution with the 0th, 1st, and 2nd
+ * derivative of the Gaussian kernel (R. Deriche: Recursively implementing the
+ * Gaussian and its derivatives, INRIA RR-1893, 1993). Every derivative is
+ * approximated by the sum of a causal and an anticausal recursion of order 4,
+ * so the cost per pixel does not depend on sigma, while the masks of Convol
+ * grow linearly with sigma. The coefficients are the ones of G. Farnebaeck and
+ * C.-F. Westin (Improving Deriche-style recursive Gaussian filters, 2006), in
+ * which all three derivatives share the same poles. The recursions are
+ * normalized such that they have the same response as the masks of Convol to
+ * a constant (0th derivative), a linear (1st derivative), and a quadratic (2nd
+ * derivative) gray value profile, so the thresholds keep their meaning.
+ *
+ * Compared to convolve_derivatives of Convol, the impulse responses differ by
+ * up to 2% (sigma 3 to 6) and 4% (sigma 12) of their maximum, mostly where
+ * the masks of Convol are truncated. The responses to 8-bit images differ by
+ * less than 1% of the maximum response for smooth images and by less than 2.5%
+ * for uniform noise for sigma >= 3. Below sigma = 2 the sampled masks deviate
+ * more from the continuous Gaussian and Convol should be preferred. At the
+ * border of the image the gray values are mirrored as in Convol.
+ */
+public class RecursiveGauss implements DerivativeFilter {
+
+	/** The Constant ORDER. */
+	/* Order of the recursions */
+	private static final int ORDER = 4;
+
+	/** The Constant PAD_SIZE. */
+	/*
+	 * Number of mirrored pixels (in units of sigma) that are added at both ends
+	 * of a line. The impulse responses decay like exp(-1.37*|x|/sigma), so the
+	 * error at the border is < 0.001.
+	 */
+	private static final double PAD_SIZE = 5.0;
+
+	/** The Constant STRIP_SIZE. */
+	/* Number of columns that are filtered together in the column pass */
+	private static final int STRIP_SIZE = 16;
+
+	/*
+	 * Coefficients of the approximation of the 0th, 1st, and 2nd derivative by
+	 * (A1*cos(W1*x)+B1*sin(W1*x))*exp(L1*x)+(A2*cos(W2*x)+B2*sin(W2*x))*exp(L2*x)
+	 * for x = |t|/sigma >= 0.
+	 */
+
+	/** The Constant A1. */
+	private static final double[] A1 = { 1.3530, -0.6724, -1.3563 };
+
+	/** The Constant B1. */
+	private static final double[] B1 = { 1.8151, -3.4327, 5.2318 };
+
+	/** The Constant W1. */
+	private static final double W1 = 0.6681;
+
+	/** The Constant L1. */
+	private static final double L1 = -1.3932;
+
+	/** The Constant A2. */
+	private static final double[] A2 = { -0.3531, 0.6724, 0.3446 };
+
+	/** The Constant B2. */
+	private static final double[] B2 = { 0.0902, 0.6100, -2.2355 };
+
+	/** The Constant W2. */
+	private static final double W2 = 2.0787;
+
+	/** The Constant L2. */
+	private static final double L2 = -1.3732;
+
+	/** The pool used to filter bands of rows and columns in parallel. */
+	private ForkJoinPool pool;
+
+	/**
+	 * The coefficients of the recursions for one derivative.
+	 */
+	private static class Recursion {
+
+		/** The causal part n[0]*x[i] + ... + n[3]*x[i-3]. */
+		double[] n = new double[ORDER];
+
+		/** The anticausal part m[0]*x[i+1] + ... + m[3]*x[i+4]. */
+		double[] m = new double[ORDER];
+
+		/** The feedback d[0]*y[i-+1] + ... + d[3]*y[i-+4]. */
+		double[] d = new double[ORDER];
+	}
+
+	/**
+	 * Instantiates a new recursive gauss which filters on the calling thread.
+	 */
+	public RecursiveGauss() {
+		this(null);
+	}
+
+	/**
+	 * Instantiates a new recursive gauss.
+	 *
+	 * @param pool
+	 *            the pool used to filter bands of rows and columns in parallel,
+	 *            or null to filter on the calling thread
+	 */
+	public RecursiveGauss(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Gets the pool.
+	 *
+	 * @return the pool used to filter bands of rows and columns in parallel, or
+	 *         null
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Sets the pool.
+	 *
+	 * @param pool
+	 *            the pool used to filter bands of rows and columns in parallel,
+	 *            or null to filter on the calling thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Compute recursion.
+	 *
+	 * @param deriv
+	 *            the derivative (0, 1, or 2)
+	 * @param sigma
+	 *            the sigma
+	 * @return the recursion
+	 */
+	/*
+	 * Decompose the approximation of the derivative into a causal and an
+	 * anticausal recursion. The anticausal part is the mirror image of the
+	 * causal part; it has the opposite sign for the (odd) 1st derivative.
+	 */
+	private static Recursion compute_recursion(int deriv, double sigma) {
+		double sin1, cos1, exp1, sin2, cos2, exp2, a1, b1, a2, b2, sign;
+		Recursion rec;
+		int i;
+
+		sin1 = Math.sin(W1 / sigma);
+		cos1 = Math.cos(W1 / sigma);
+		exp1 = Math.exp(L1 / sigma);
+		sin2 = Math.sin(W2 / sigma);
+		cos2 = Math.cos(W2 / sigma);
+		exp2 = Math.exp(L2 / sigma);
+		a1 = A1[deriv];
+		b1 = B1[deriv];
+		a2 = A2[deriv];
+		b2 = B2[deriv];
+
+		rec = new Recursion();
+		rec.n[0] = a1 + a2;
+		rec.n[1] = exp2 * (b2 * sin2 - (a2 + 2 * a1) * cos2) + exp1 * (b1 * sin1 - (a1 + 2 * a2) * cos1);
+		rec.n[2] = 2 * exp1 * exp2 * ((a1 + a2) * cos2 * cos1 - b1 * cos2 * sin1 - b2 * cos1 * sin2)
+				+ a2 * exp1 * exp1 + a1 * exp2 * exp2;
+		rec.n[3] = exp2 * exp1 * exp1 * (b2 * sin2 - a2 * cos2) + exp1 * exp2 * exp2 * (b1 * sin1 - a1 * cos1);
+		rec.d[0] = -2 * (exp2 * cos2 + exp1 * cos1);
+		rec.d[1] = 4 * cos2 * cos1 * exp1 * exp2 + exp1 * exp1 + exp2 * exp2;
+		rec.d[2] = -2 * cos1 * exp1 * exp2 * exp2 - 2 * cos2 * exp2 * exp1 * exp1;
+		rec.d[3] = exp1 * exp1 * exp2 * exp2;
+
+		sign = (deriv == 1) ? -1.0 : 1.0;
+		for (i = 1; i < ORDER; i++)
+			rec.m[i - 1] = sign * (rec.n[i] - rec.d[i - 1] * rec.n[0]);
+		rec.m[ORDER - 1] = -sign * rec.d[ORDER - 1] * rec.n[0];
+		return rec;
+	}
+
+	/**
+	 * Compute moments.
+	 *
+	 * @param rec
+	 *            the recursion
+	 * @param sigma
+	 *            the sigma
+	 * @return the 0th, 1st, and 2nd moment of the impulse response
+	 */
+	/*
+	 * The impulse response h is taken in the same orientation as the masks of
+	 * Convol, i.e., y[i] = sum_j h[j]*x[i+j].
+	 */
+	private static double[] compute_moments(Recursion rec, double sigma) {
+		int l, len, i, j;
+		double[] x, y, a, mom;
+
+		l = (int) Math.ceil(12 * sigma) + 2 * ORDER;
+		len = 2 * l + 1;
+		x = new double[len + 2 * ORDER];
+		y = new double[len + 2 * ORDER];
+		a = new double[len + 2 * ORDER];
+		x[ORDER + l] = 1.0;
+		recursive_filter(x, y, a, len, 1, rec);
+		mom = new double[3];
+		for (i = 0; i < len; i++) {
+			j = l - i;
+			mom[0] += y[ORDER + i];
+			mom[1] += j * y[ORDER + i];
+			mom[2] += j * j * y[ORDER + i];
+		}
+		return mom;
+	}
+
+	/**
+	 * Scale.
+	 *
+	 * @param rec
+	 *            the recursion
+	 * @param f
+	 *            the factor
+	 * @param sub
+	 *            the recursion to subtract after the scaling, or null
+	 * @param g
+	 *            the factor of sub
+	 */
+	/* rec = f*rec - g*sub; both recursions have the same feedback d. */
+	private static void scale(Recursion rec, double f, Recursion sub, double g) {
+		int i;
+
+		for (i = 0; i < ORDER; i++) {
+			rec.n[i] = f * rec.n[i] - (sub != null ? g * sub.n[i] : 0.0);
+			rec.m[i] = f * rec.m[i] - (sub != null ? g * sub.m[i] : 0.0);
+		}
+	}
+
+	/**
+	 * Compute recursions.
+	 *
+	 * @param sigma
+	 *            the sigma
+	 * @return the normalized recursions of the 0th, 1st, and 2nd derivative
+	 */
+	private static Recursion[] compute_recursions(double sigma) {
+		Recursion[] rec;
+		double[] mom, mask;
+		double target;
+		MutableLong num;
+		Convol convol;
+		int i, n;
+
+		rec = new Recursion[3];
+		for (i = 0; i < 3; i++)
+			rec[i] = compute_recursion(i, sigma);
+
+		/* Unit DC gain for the smoothing */
+		mom = compute_moments(rec[0], sigma);
+		scale(rec[0], 1.0 / mom[0], null, 0.0);
+
+		/* Same response to a linear profile as mask 1 of Convol */
+		convol = new Convol();
+		num = new MutableLong();
+		mask = convol.compute_gauss_mask_1(num, sigma);
+		n = num.intValue();
+		target = 0.0;
+		for (i = -n; i <= n; i++)
+			target += i * mask[n + i];
+		mom = compute_moments(rec[1], sigma);
+		scale(rec[1], target / mom[1], null, 0.0);
+
+		/*
+		 * No DC gain and the same response to a quadratic profile as mask 2 of
+		 * Convol. The DC gain is removed by subtracting the smoothing.
+		 */
+		mask = convol.compute_gauss_mask_2(num, sigma);
+		n = num.intValue();
+		target = 0.0;
+		for (i = -n; i <= n; i++)
+			target += i * i * mask[n + i];
+		mom = compute_moments(rec[2], sigma);
+		scale(rec[2], 1.0, rec[0], mom[0]);
+		mom = compute_moments(rec[2], sigma);
+		scale(rec[2], target / mom[2], null, 0.0);
+		return rec;
+	}
+
+	/**
+	 * Recursive filter.
+	 *
+	 * @param x
+	 *            the input
+	 * @param y
+	 *            the output
+	 * @param a
+	 *            a buffer for the anticausal part
+	 * @param len
+	 *            the length of the lines
+	 * @param s
+	 *            the number of interleaved lines
+	 * @param rec
+	 *            the recursion
+	 */
+	/*
+	 * Filter s interleaved lines of length len, i.e., sample i of line l is
+	 * stored at (ORDER+i)*s+l. The arrays contain ORDER guard samples before and
+	 * after every line, which must be set to the first and last sample of the
+	 * line in x. The guard samples of y and a are set to the steady state of the
+	 * recursions for a constant continuation of the line.
+	 */
+	private static void recursive_filter(double[] x, double[] y, double[] a, int len, int s, Recursion rec) {
+		int i, j, first, end;
+		double n0, n1, n2, n3, m0, m1, m2, m3, d0, d1, d2, d3, gn, gm;
+
+		n0 = rec.n[0];
+		n1 = rec.n[1];
+		n2 = rec.n[2];
+		n3 = rec.n[3];
+		m0 = rec.m[0];
+		m1 = rec.m[1];
+		m2 = rec.m[2];
+		m3 = rec.m[3];
+		d0 = rec.d[0];
+		d1 = rec.d[1];
+		d2 = rec.d[2];
+		d3 = rec.d[3];
+		gn = (n0 + n1 + n2 + n3) / (1 + d0 + d1 + d2 + d3);
+		gm = (m0 + m1 + m2 + m3) / (1 + d0 + d1 + d2 + d3);
+		first = ORDER * s;
+		end = (ORDER + len) * s;
+		for (i = 0; i < s; i++) {
+			for (j = 1; j <= ORDER; j++) {
+				y[first - j * s + i] = gn * x[first + i];
+				a[end + (j - 1) * s + i] = gm * x[end - s + i];
+			}
+		}
+		for (i = first; i < end; i++)
+			y[i] = n0 * x[i] + n1 * x[i - s] + n2 * x[i - 2 * s] + n3 * x[i - 3 * s] - d0 * y[i - s]
+					- d1 * y[i - 2 * s] - d2 * y[i - 3 * s] - d3 * y[i - 4 * s];
+		for (i = end - 1; i >= first; i--)
+			a[i] = m0 * x[i + s] + m1 * x[i + 2 * s] + m2 * x[i + 3 * s] + m3 * x[i + 4 * s] - d0 * a[i + s]
+					- d1 * a[i + 2 * s] - d2 * a[i + 3 * s] - d3 * a[i + 4 * s];
+		for (i = first; i < end; i++)
+			y[i] += a[i];
+	}
+
+	/**
+	 * Fill guards.
+	 *
+	 * @param x
+	 *            the input
+	 * @param len
+	 *            the length of the lines
+	 * @param s
+	 *            the number of interleaved lines
+	 */
+	private static void fill_guards(double[] x, int len, int s) {
+		int i, j, first, end;
+
+		first = ORDER * s;
+		end = (ORDER + len) * s;
+		for (i = 0; i < s; i++) {
+			for (j = 1; j <= ORDER; j++) {
+				x[first - j * s + i] = x[first + i];
+				x[end + (j - 1) * s + i] = x[end - s + i];
+			}
+		}
+	}
+
+	/**
+	 * Filter rows.
+	 *
+	 * @param image
+	 *            the image
+	 * @param rec
+	 *            the recursions
+	 * @param k0
+	 *            the rows filtered with the 0th derivative
+	 * @param k1
+	 *            the rows filtered with the 1st derivative
+	 * @param k2
+	 *            the rows filtered with the 2nd derivative
+	 * @param width
+	 *            the width
+	 * @param pad
+	 *            the number of mirrored pixels at both ends
+	 * @param x
+	 *            a buffer of length width+2*pad+2*ORDER
+	 * @param y
+	 *            a buffer of length width+2*pad+2*ORDER
+	 * @param a
+	 *            a buffer of length width+2*pad+2*ORDER
+	 * @param r
+	 *            the row
+	 */
+	private static void filter_row(float[] image, Recursion[] rec, float[] k0, float[] k1, float[] k2, int width,
+			int pad, double[] x, double[] y, double[] a, int r) {
+		int c, len, deriv;
+		float[] k;
+
+		len = width + 2 * pad;
+		for (c = 0; c < len; c++)
+			x[ORDER + c] = image[LinesUtil.LINCOOR(r, LinesUtil.MIRROR(c - pad, width), width)];
+		fill_guards(x, len, 1);
+		for (deriv = 0; deriv < 3; deriv++) {
+			k = (deriv == 0) ? k0 : (deriv == 1) ? k1 : k2;
+			recursive_filter(x, y, a, len, 1, rec[deriv]);
+			for (c = 0; c < width; c++)
+				k[LinesUtil.LINCOOR(r, c, width)] = (float) y[ORDER + pad + c];
+		}
+	}
+
+	/**
+	 * Filter columns.
+	 *
+	 * @param src
+	 *            the image whose columns are filtered
+	 * @param rec
+	 *            the recursions
+	 * @param derivs
+	 *            the derivatives to compute
+	 * @param dst
+	 *            the results for derivs, may contain src
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param pad
+	 *            the number of mirrored pixels at both ends
+	 * @param x
+	 *            a buffer of length (height+2*pad+2*ORDER)*STRIP_SIZE
+	 * @param y
+	 *            a buffer of length (height+2*pad+2*ORDER)*STRIP_SIZE
+	 * @param a
+	 *            a buffer of length (height+2*pad+2*ORDER)*STRIP_SIZE
+	 * @param c0
+	 *            the first column of the strip
+	 * @param s
+	 *            the number of columns of the strip
+	 */
+	/*
+	 * The columns of a strip are filtered together, so every row of the strip is
+	 * read and written in one piece.
+	 */
+	private static void filter_cols(float[] src, Recursion[] rec, int[] derivs, float[][] dst, int width, int height,
+			int pad, double[] x, double[] y, double[] a, int c0, int s) {
+		int r, l, len, i;
+		float[] k;
+
+		len = height + 2 * pad;
+		for (r = 0; r < len; r++) {
+			int off = LinesUtil.LINCOOR(LinesUtil.MIRROR(r - pad, height), c0, width);
+			for (l = 0; l < s; l++)
+				x[(ORDER + r) * s + l] = src[off + l];
+		}
+		fill_guards(x, len, s);
+		for (i = 0; i < derivs.length; i++) {
+			k = dst[i];
+			recursive_filter(x, y, a, len, s, rec[derivs[i]]);
+			for (r = 0; r < height; r++) {
+				int off = LinesUtil.LINCOOR(r, c0, width);
+				for (l = 0; l < s; l++)
+					k[off + l] = (float) y[(ORDER + pad + r) * s + l];
+			}
+		}
+	}
+
+	/*
+	 * Compute the five derivatives. The rows of the image are filtered with the
+	 * three derivatives first, which are stored in k[0] (0th), k[1] (1st), and
+	 * k[4] (2nd). Then the columns are filtered: k[0] yields DERIV_R and
+	 * DERIV_RR, k[1] yields DERIV_C and DERIV_RC, and k[4] yields DERIV_CC.
+	 */
+	@Override
+	public void convolve_derivatives(final float[] image, final float[][] k, final int width, final int height,
+			double sigma) {
+		final Recursion[] rec = compute_recursions(sigma);
+		final int pad = (int) Math.ceil(PAD_SIZE * sigma);
+		final int strips = (width + STRIP_SIZE - 1) / STRIP_SIZE;
+
+		BandExecutor.execute(pool, 0, height, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				int size = width + 2 * pad + 2 * ORDER;
+				double[] x = new double[size];
+				double[] y = new double[size];
+				double[] a = new double[size];
+				for (int r = from; r < to; r++)
+					filter_row(image, rec, k[0], k[1], k[4], width, pad, x, y, a, r);
+			}
+		});
+
+		BandExecutor.execute(pool, 0, strips, new BandExecutor.Band() {
+			@Override
+			public void process(int from, int to) {
+				int size = (height + 2 * pad + 2 * ORDER) * STRIP_SIZE;
+				double[] x = new double[size];
+				double[] y = new double[size];
+				double[] a = new double[size];
+				for (int i = from; i < to; i++) {
+					int c0 = i * STRIP_SIZE;
+					int s = Math.min(STRIP_SIZE, width - c0);
+					filter_cols(k[0], rec, new int[] { 1, 2 }, new float[][] { k[0], k[2] }, width, height, pad, x,
+							y, a, c0, s);
+					filter_cols(k[1], rec, new int[] { 0, 1 }, new float[][] { k[1], k[3] }, width, height, pad, x,
+							y, a, c0, s);
+					filter_cols(k[4], rec, new int[] { 0 }, new float[][] { k[4] }, width, height, pad, x, y, a, c0,
+							s);
+				}
+			}
+		});
+	}
+
+}
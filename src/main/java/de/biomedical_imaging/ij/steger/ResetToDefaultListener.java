@@ -107,6 +107,7 @@ public class ResetToDefaultListener implements ActionListener {
 		((Checkbox) gd.getCheckboxes().get(9)).setState(Lines_.makeBinaryDefault);
 
 		((Choice) gd.getChoices().get(0)).select(0);
+		((Choice) gd.getChoices().get(1)).select(0);
 
 	}
 
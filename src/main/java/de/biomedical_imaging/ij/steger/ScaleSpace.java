@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.Arrays;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ScaleSpace.
+ */
+/*
+ * Computes the partial derivatives of an image for a series of increasing
+ * sigmas without starting from the raw pixels for every sigma. The Gaussian is
+ * a semigroup: smoothing with sigma a and then with sigma b is the same as
+ * smoothing with sqrt(a^2+b^2). The derivatives at the smallest sigma s0 are
+ * computed from the image with Convol. For every larger sigma s, the image is
+ * smoothed further by a small residual Gaussian, so that the smoothed image
+ * followed by the derivative masks of s0 has the scale s. The derivative masks
+ * therefore always have the size of s0, and each step only adds two passes of
+ * a Gaussian mask of the residual sigma instead of the five derivatives at the
+ * full size of s.
+ *
+ * The masks of Convol are Gaussians integrated over a pixel, i.e., a Gaussian
+ * convolved with a box of width 1. A mask of sigma r therefore has the variance
+ * r^2+1/12 (for r >= 0.5, see MIN_RESIDUAL_VARIANCE), and the residual sigma is
+ * chosen so that the variances, and not the sigmas, add up to the requested
+ * scale. A residual with a smaller variance than MIN_RESIDUAL_VARIANCE cannot
+ * be represented by a mask of Convol. The derivatives of such a sigma are then
+ * computed directly from the image with Convol, as for the first sigma, and the
+ * cascade continues from its previous scale with the next sigma.
+ */
+public class ScaleSpace {
+
+	/** The Constant BOX_VARIANCE. */
+	/* Variance of the integration over one pixel */
+	private static final double BOX_VARIANCE = 1.0 / 12.0;
+
+	/** The Constant MIN_RESIDUAL_VARIANCE. */
+	/*
+	 * Below sigma = 0.5 the variance of the Gaussian mask falls short of
+	 * sigma^2+1/12, since the mask degenerates to a single tap.
+	 */
+	private static final double MIN_RESIDUAL_VARIANCE = 0.25 + BOX_VARIANCE;
+
+	/** The convol. */
+	private Convol convol;
+
+	/** The width. */
+	private int width;
+
+	/** The height. */
+	private int height;
+
+	/** The image. */
+	private float[] image;
+
+	/** The image smoothed to the current scale. */
+	private float[] base;
+
+	/** The scratch buffer. */
+	private float[] tmp;
+
+	/** The sigma of the derivative masks, or -1 before the first scale. */
+	private double sigma0 = -1;
+
+	/** The last sigma. */
+	private double last = -1;
+
+	/** The variance that base has been smoothed with. */
+	private double variance = 0;
+
+	/**
+	 * Instantiates a new scale space. The image is not modified.
+	 *
+	 * @param image
+	 *            the image
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param convol
+	 *            the convol whose context and pool are used
+	 */
+	public ScaleSpace(float[] image, int width, int height, Convol convol) {
+		this.convol = convol;
+		this.width = width;
+		this.height = height;
+		this.image = image;
+		this.base = image;
+	}
+
+	/**
+	 * Compute the derivatives of the next scale.
+	 *
+	 * @param sigma
+	 *            the sigma, not smaller than the sigma of the previous call
+	 * @param k
+	 *            the five derivative images in the order DERIV_R, DERIV_C,
+	 *            DERIV_RR, DERIV_RC, DERIV_CC
+	 */
+	public void derivatives(double sigma, float[][] k) {
+		double residual;
+		float[] swap;
+
+		if (sigma < last)
+			throw new IllegalArgumentException("The sigmas of a scale space must be ascending");
+		last = sigma;
+		if (sigma0 < 0) {
+			sigma0 = sigma;
+		} else {
+			residual = sigma * sigma - sigma0 * sigma0 - variance;
+			if (residual < MIN_RESIDUAL_VARIANCE) {
+				/* The residual is too small for a mask, compute the sigma directly */
+				convol.convolve_derivatives(image, k, width, height, sigma);
+				return;
+			}
+			if (tmp == null) {
+				tmp = convol.getContext().take_float(LinesUtil.IMAGE_SIZE(width, height));
+				convol.convolve_gauss(base, tmp, width, height, Math.sqrt(residual - BOX_VARIANCE),
+						LinesUtil.DERIV_0);
+				base = convol.getContext().take_float(LinesUtil.IMAGE_SIZE(width, height));
+			} else {
+				convol.convolve_gauss(base, tmp, width, height, Math.sqrt(residual - BOX_VARIANCE),
+						LinesUtil.DERIV_0);
+			}
+			swap = base;
+			base = tmp;
+			tmp = swap;
+			variance += residual;
+		}
+		convol.convolve_derivatives(base, k, width, height, sigma0);
+	}
+
+	/**
+	 * Compute the derivatives of all scales.
+	 *
+	 * @param image
+	 *            the image
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param sigmas
+	 *            the sigmas, in any order
+	 * @param convol
+	 *            the convol whose context and pool are used
+	 * @return the five derivative images of every sigma, in the order of sigmas
+	 */
+	public static float[][][] compute_derivatives(float[] image, int width, int height, double[] sigmas,
+			Convol convol) {
+		float[][][] k = new float[sigmas.length][5][LinesUtil.IMAGE_SIZE(width, height)];
+		double[] sorted = sigmas.clone();
+		ScaleSpace space = new ScaleSpace(image, width, height, convol);
+		int i, j;
+
+		Arrays.sort(sorted);
+		for (i = 0; i < sorted.length; i++) {
+			if (i > 0 && sorted[i] == sorted[i - 1])
+				continue;
+			for (j = 0; j < sigmas.length; j++) {
+				if (sigmas[j] == sorted[i]) {
+					space.derivatives(sorted[i], k[j]);
+					break;
+				}
+			}
+		}
+		/* Equal sigmas share the same derivatives */
+		for (i = 0; i < sigmas.length; i++) {
+			for (j = 0; j < i; j++) {
+				if (sigmas[j] == sigmas[i]) {
+					k[i] = k[j];
+					break;
+				}
+			}
+		}
+		space.release();
+		return k;
+	}
+
+	/**
+	 * Give the scratch buffers back to the context of the convol. The scale
+	 * space cannot be used afterwards.
+	 */
+	public void release() {
+		if (tmp != null) {
+			convol.getContext().release(base);
+			convol.getContext().release(tmp);
+		}
+		base = null;
+		tmp = null;
+	}
+
+}
@@ -64,13 +64,13 @@ public class Threshold {
 				if (grey >= min) {
 					if (!inside) {
 						inside = true;
-						rl[num].r = (short) r;
-						rl[num].cb = (short) c;
+						rl[num].r = r;
+						rl[num].cb = c;
 					}
 				} else {
 					if (inside) {
 						inside = false;
-						rl[num].ce = (short) (c - 1);
+						rl[num].ce = c - 1;
 						num++;
 						if (num >= num_max) {
 							num_max = (int) Math.floor((double) (num_max * LinesUtil.REALLOC_FACTOR));
@@ -88,7 +88,7 @@ public class Threshold {
 			}
 			if (inside) {
 				inside = false;
-				rl[num].ce = (short) (width - 1);
+				rl[num].ce = width - 1;
 				num++;
 				if (num >= num_max) {
 					num_max = (int) Math.floor((double) (num_max * LinesUtil.REALLOC_FACTOR));
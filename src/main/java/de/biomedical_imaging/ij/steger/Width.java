@@ -54,6 +54,27 @@ public class Width {
 	/* Maximum contrast allowed (used for outlier check in fix_locations()) */
 	public static final double MAX_CONTRAST = 275.0;
 
+	/** The context that provides the scratch buffers. */
+	private ConvolutionContext context;
+
+	/**
+	 * Instantiates a new width.
+	 */
+	public Width() {
+		this(new ConvolutionContext());
+	}
+
+	/**
+	 * Instantiates a new width which takes its scratch buffers from the given
+	 * context.
+	 *
+	 * @param context
+	 *            the context that provides the scratch buffers
+	 */
+	public Width(ConvolutionContext context) {
+		this.context = context;
+	}
+
 	/**
 	 * Bresenham.
 	 *
@@ -443,9 +464,10 @@ public class Width {
 	 */
 	public void compute_line_width(float[] dx, float[] dy, int width, int height, double sigma, int mode,
 			boolean correct_pos, ArrayList<Line> contours, MutableInt num_contours) {
-		float[] grad;
+		PaddedImage grad;
+		float[] data;
 		int i, j, k;
-		int r, c, l;
+		int r, c, l, s;
 		int x, y, dir;
 		Offset[] line;
 		int max_line, num_line = 0;
@@ -458,16 +480,11 @@ public class Width {
 		double d, dr, dc, drr, drc, dcc;
 		double i1, i2, i3, i4, i5, i6, i7, i8, i9;
 		double t1, t2, t3, t4, t5, t6;
-		double[] eigval = new double[2];
-		double[][] eigvec = new double[2][2];
-		double a, b, t = 0;
-		int num = 0;
+		double[] fd, fdr, fdc, frr, frc, fcc;
+		double[] val, n1, n2, p1, p2;
+		double b, t;
 		double nx, ny;
-		double n1, n2;
-		double p1, p2;
-		double val;
 		double px, py;
-		Position p = new Position();
 		max_num_points = 0;
 		for (i = 0; i < num_contours.getValue(); i++) {
 			num_points = contours.get(i).num;
@@ -485,7 +502,13 @@ public class Width {
 		contrast = new double[max_num_points];
 		asymm = new double[max_num_points];
 
-		grad = new float[(width * height)];
+		/*
+		 * The facet model uses the 3x3 neighbourhood of a pixel. The gradient image
+		 * is padded by one pixel, so the neighbours can be read without mirroring.
+		 */
+		grad = new PaddedImage(context, width, height, 1);
+		data = grad.getData();
+		s = grad.getStride();
 
 		length = 2.5 * sigma;
 		max_line = (int) Math.ceil(length * 3);
@@ -493,14 +516,26 @@ public class Width {
 		for (int o = 0; o < line.length; o++) {
 			line[o] = new Offset();
 		}
+		fd = new double[max_line];
+		fdr = new double[max_line];
+		fdc = new double[max_line];
+		frr = new double[max_line];
+		frc = new double[max_line];
+		fcc = new double[max_line];
+		val = new double[max_line];
+		n1 = new double[max_line];
+		n2 = new double[max_line];
+		p1 = new double[max_line];
+		p2 = new double[max_line];
 
 		/* Compute the gradient image. */
 		for (r = 0; r < height; r++) {
 			for (c = 0; c < width; c++) {
 				l = LinesUtil.LINCOOR(r, c, width);
-				grad[l] = (float) Math.sqrt(dx[l] * dx[l] + dy[l] * dy[l]);
+				data[grad.index(r, c)] = (float) Math.sqrt(dx[l] * dx[l] + dy[l] * dy[l]);
 			}
 		}
+		grad.mirror_border();
 
 		for (i = 0; i < num_contours.getValue(); i++) {
 			cont = contours.get(i);
@@ -522,68 +557,59 @@ public class Width {
 				width_r[j] = width_l[j] = 0;
 				/* Look on both sides of the line. */
 				for (dir = -1; dir <= 1; dir += 2) {
+					/* Fit the facet model at all points of the search line at once */
 					for (k = 0; k < num_line; k++) {
 						x = LinesUtil.BR(r + dir * line[k].x, height);
 						y = LinesUtil.BC(c + dir * line[k].y, width);
-						i1 = grad[LinesUtil.LINCOOR(LinesUtil.BR(x - 1, height), LinesUtil.BC(y - 1, width), width)];
-						i2 = grad[LinesUtil.LINCOOR(LinesUtil.BR(x - 1, height), y, width)];
-						i3 = grad[LinesUtil.LINCOOR(LinesUtil.BR(x - 1, height), LinesUtil.BC(y + 1, width), width)];
-						i4 = grad[LinesUtil.LINCOOR(x, LinesUtil.BC(y - 1, width), width)];
-						i5 = grad[LinesUtil.LINCOOR(x, y, width)];
-						i6 = grad[LinesUtil.LINCOOR(x, LinesUtil.BC(y + 1, width), width)];
-						i7 = grad[LinesUtil.LINCOOR(LinesUtil.BR(x + 1, height), LinesUtil.BC(y - 1, width), width)];
-						i8 = grad[LinesUtil.LINCOOR(LinesUtil.BR(x + 1, height), y, width)];
-						i9 = grad[LinesUtil.LINCOOR(LinesUtil.BR(x + 1, height), LinesUtil.BC(y + 1, width), width)];
+						l = grad.index(x, y);
+						i1 = data[l - s - 1];
+						i2 = data[l - s];
+						i3 = data[l - s + 1];
+						i4 = data[l - 1];
+						i5 = data[l];
+						i6 = data[l + 1];
+						i7 = data[l + s - 1];
+						i8 = data[l + s];
+						i9 = data[l + s + 1];
 						t1 = i1 + i2 + i3;
 						t2 = i4 + i5 + i6;
 						t3 = i7 + i8 + i9;
 						t4 = i1 + i4 + i7;
 						t5 = i2 + i5 + i8;
 						t6 = i3 + i6 + i9;
-						dr = (t3 - t1) / 6;
-						dc = (t6 - t4) / 6;
-						drr = (t1 - 2 * t2 + t3) / 6;
-						dcc = (t4 - 2 * t5 + t6) / 6;
-						drc = (i1 - i3 - i7 + i9) / 4;
-						p.compute_eigenvals(2 * drr, drc, 2 * dcc, eigval, eigvec);
-						val = -eigval[0];
-						if (val > 0.0) {
-							n1 = eigvec[0][0];
-							n2 = eigvec[0][1];
-							a = 2.0 * (drr * n1 * n1 + drc * n1 * n2 + dcc * n2 * n2);
-							b = dr * n1 + dc * n2;
-							MutableDouble th = new MutableDouble(t);
-							MutableInt numh = new MutableInt(num);
-							p.solve_linear(a, b, th, numh);
-							t = th.getValue();
-							num = numh.getValue();
-							if (num != 0) {
-								p1 = t * n1;
-								p2 = t * n2;
-								if (Math.abs(p1) <= 0.5 && Math.abs(p2) <= 0.5) {
-									/*
-									 * Project the maximum point position perpendicularly onto the search line.
-									 */
-									a = 1;
-									b = nx * (px - (r + dir * line[k].x + p1)) + ny * (py - (c + dir * line[k].y + p2));
-									th = new MutableDouble(t);
-									numh = new MutableInt(num);
-									p.solve_linear(a, b, th, numh);
-									t = th.getValue();
-									num = numh.getValue();
-									d = (-i1 + 2 * i2 - i3 + 2 * i4 + 5 * i5 + 2 * i6 - i7 + 2 * i8 - i9) / 9;
-									if (dir == 1) {
-										grad_r[j] = d + p1 * dr + p2 * dc + p1 * p1 * drr + p1 * p2 * drc
-												+ p2 * p2 * dcc;
-										width_r[j] = Math.abs(t);
-									} else {
-										grad_l[j] = d + p1 * dr + p2 * dc + p1 * p1 * drr + p1 * p2 * drc
-												+ p2 * p2 * dcc;
-										width_l[j] = Math.abs(t);
-									}
-									break;
-								}
+						fd[k] = (-i1 + 2 * i2 - i3 + 2 * i4 + 5 * i5 + 2 * i6 - i7 + 2 * i8 - i9) / 9;
+						fdr[k] = (t3 - t1) / 6;
+						fdc[k] = (t6 - t4) / 6;
+						/* The Hessian of the facet model is twice its second order coefficients */
+						frr[k] = 2 * ((t1 - 2 * t2 + t3) / 6);
+						frc[k] = (i1 - i3 - i7 + i9) / 4;
+						fcc[k] = 2 * ((t4 - 2 * t5 + t6) / 6);
+					}
+					HessianKernel.line_points(fdr, fdc, frr, frc, fcc, num_line, LinesUtil.MODE_LIGHT, 0.0, val, n1, n2,
+							p1, p2);
+					for (k = 0; k < num_line; k++) {
+						/* p1 and p2 are NaN if there is no maximum */
+						if (Math.abs(p1[k]) <= 0.5 && Math.abs(p2[k]) <= 0.5) {
+							/*
+							 * Project the maximum point position perpendicularly onto the search line.
+							 */
+							b = nx * (px - (r + dir * line[k].x + p1[k])) + ny * (py - (c + dir * line[k].y + p2[k]));
+							t = -b;
+							dr = fdr[k];
+							dc = fdc[k];
+							drr = 0.5 * frr[k];
+							drc = frc[k];
+							dcc = 0.5 * fcc[k];
+							d = fd[k] + p1[k] * dr + p2[k] * dc + p1[k] * p1[k] * drr + p1[k] * p2[k] * drc
+									+ p2[k] * p2[k] * dcc;
+							if (dir == 1) {
+								grad_r[j] = d;
+								width_r[j] = Math.abs(t);
+							} else {
+								grad_l[j] = d;
+								width_l[j] = Math.abs(t);
 							}
+							break;
 						}
 					}
 				}
@@ -592,6 +618,7 @@ public class Width {
 			fix_locations(width_l, width_r, grad_l, grad_r, pos_x, pos_y, correct, contrast, asymm, sigma, mode,
 					correct_pos, cont);
 		}
+		grad.release(context);
 	}
 
 }
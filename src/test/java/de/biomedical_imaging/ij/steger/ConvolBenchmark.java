@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.Random;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ConvolBenchmark.
+ */
+/*
+ * Measures Convol.convolve_derivatives on wide images, on the calling thread
+ * and as the best of RUNS runs, with the double and the float accumulation.
+ * The image sizes are 4096x1024 and 16384x256, so that a row does not fit
+ * into the L1 cache and the vertical pass strides over large rows. Run with
+ * the test classes on the class path, e.g.
+ *
+ * java -cp target/classes:target/test-classes
+ * de.biomedical_imaging.ij.steger.ConvolBenchmark [runs]
+ */
+public class ConvolBenchmark {
+
+	/** The Constant RUNS. */
+	private static final int RUNS = 5;
+
+	/** The Constant SIZES. */
+	/* Width and height of the images */
+	private static final int[][] SIZES = { { 4096, 1024 }, { 16384, 256 } };
+
+	/** The Constant SIGMAS. */
+	private static final double[] SIGMAS = { 1.5, 4.0 };
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the number of runs, optional
+	 */
+	public static void main(String[] args) {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : RUNS;
+		Random random = new Random(0);
+		float[] image;
+		float[][] k = new float[5][];
+		int width, height, i;
+
+		System.out.println("size          sigma   double    float");
+		for (int[] size : SIZES) {
+			width = size[0];
+			height = size[1];
+			image = new float[width * height];
+			for (i = 0; i < image.length; i++)
+				image[i] = random.nextInt(256);
+			for (i = 0; i < 5; i++)
+				k[i] = new float[width * height];
+			for (double sigma : SIGMAS) {
+				System.out.printf("%5dx%-5d %8.1f %6d ms %5d ms%n", width, height, sigma,
+						best(image, k, width, height, sigma, false, runs),
+						best(image, k, width, height, sigma, true, runs));
+			}
+		}
+	}
+
+	/**
+	 * Best.
+	 *
+	 * @param image
+	 *            the image
+	 * @param k
+	 *            the five derivative images
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param sigma
+	 *            the sigma
+	 * @param floatAccumulation
+	 *            accumulate in float instead of double
+	 * @param runs
+	 *            the number of runs
+	 * @return the shortest time of the runs in milliseconds
+	 */
+	private static long best(float[] image, float[][] k, int width, int height, double sigma,
+			boolean floatAccumulation, int runs) {
+		Convol convol = new Convol(null);
+		long best = Long.MAX_VALUE, t;
+
+		convol.setFloatAccumulation(floatAccumulation);
+		/* The first run warms up the JIT compiler and the mask cache */
+		convol.convolve_derivatives(image, k, width, height, sigma);
+		for (int run = 0; run < runs; run++) {
+			t = System.nanoTime();
+			convol.convolve_derivatives(image, k, width, height, sigma);
+			best = Math.min(best, System.nanoTime() - t);
+		}
+		return best / 1000000;
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * #%L
+ * Ridge Detection plugin for ImageJ
+ * %%
+ * Copyright (C) 2014 - 2015 Thorsten Wagner (ImageJ java plugin), 1996-1998 Carsten Steger (original C code), 1999 R. Balasubramanian (detect lines code to incorporate within GRASP)
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package de.biomedical_imaging.ij.steger;
+
+import java.util.Random;
+
+import org.apache.commons.lang3.mutable.MutableInt;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LinkBenchmark.
+ */
+/*
+ * Measures the line point extraction and the linking on a dense image, i.e.,
+ * an image with many short lines that cross each other, so that Link looks at
+ * many neighbours per point. The derivatives are computed once, and their
+ * time is reported to relate the linking to the whole detection. Position
+ * then extracts the line points, builds the point store and links the points
+ * without the width, and the best time of RUNS runs is reported. Run with the
+ * test classes on the class path, e.g.
+ *
+ * java -cp target/classes:target/test-classes:commons-lang3.jar
+ * de.biomedical_imaging.ij.steger.LinkBenchmark [runs]
+ */
+public class LinkBenchmark {
+
+	/** The Constant RUNS. */
+	private static final int RUNS = 15;
+
+	/** The Constant SIZE. */
+	private static final int SIZE = 2048;
+
+	/** The Constant LINES. */
+	private static final int LINES = 6000;
+
+	/** The Constant SIGMA. */
+	private static final double SIGMA = 1.5;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the number of runs, optional
+	 */
+	public static void main(String[] args) {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : RUNS;
+		float[] image = lines(SIZE, SIZE, LINES, new Random(0));
+		float[][] k = new float[5][SIZE * SIZE];
+		Position position = new Position(null, null, new ConvolutionContext());
+		Lines contours = null;
+		long best = Long.MAX_VALUE, derivatives = Long.MAX_VALUE, t;
+		int points, run, i;
+
+		for (run = 0; run < 3; run++) {
+			t = System.nanoTime();
+			new Convol(null).convolve_derivatives(image, k, SIZE, SIZE, SIGMA);
+			derivatives = Math.min(derivatives, System.nanoTime() - t);
+		}
+		/* The first run warms up the JIT compiler */
+		for (run = 0; run <= runs; run++) {
+			contours = new Lines(1);
+			t = System.nanoTime();
+			position.detect_lines(k, SIZE, SIZE, contours, new MutableInt(0), SIGMA, 1.0, 3.0, LinesUtil.MODE_LIGHT,
+					false, false, true, new Junctions(1));
+			if (run > 0)
+				best = Math.min(best, System.nanoTime() - t);
+		}
+		points = 0;
+		for (i = 0; i < contours.size(); i++)
+			points += contours.get(i).num;
+		System.out.printf("%dx%d, %d lines, sigma %.1f: %d contours, %d points%n", SIZE, SIZE, LINES, SIGMA,
+				contours.size(), points);
+		System.out.printf("derivatives %d ms, line points and linking %d ms%n", derivatives / 1000000,
+				best / 1000000);
+	}
+
+	/**
+	 * Lines.
+	 *
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * @param num
+	 *            the number of lines
+	 * @param random
+	 *            the random
+	 * @return an image of num bright straight lines of random position,
+	 *         direction, length (20 to 120 pixels) and width (1 to 4 pixels)
+	 */
+	private static float[] lines(int width, int height, int num, Random random) {
+		float[] image = new float[width * height];
+		double r0, c0, angle, length, w, dr, dc, d, t;
+		int r, c, i;
+
+		for (i = 0; i < num; i++) {
+			r0 = random.nextDouble() * height;
+			c0 = random.nextDouble() * width;
+			angle = random.nextDouble() * Math.PI;
+			length = 20 + random.nextDouble() * 100;
+			w = 1 + random.nextDouble() * 3;
+			dr = Math.sin(angle);
+			dc = Math.cos(angle);
+			for (r = (int) Math.max(0, r0 - length - w); r < Math.min(height, r0 + length + w); r++) {
+				for (c = (int) Math.max(0, c0 - length - w); c < Math.min(width, c0 + length + w); c++) {
+					t = (r - r0) * dr + (c - c0) * dc;
+					if (t < 0 || t > length)
+						continue;
+					d = Math.abs((r - r0) * dc - (c - c0) * dr);
+					if (d <= w / 2)
+						image[LinesUtil.LINCOOR(r, c, width)] = 100;
+				}
+			}
+		}
+		return image;
+	}
+
+}